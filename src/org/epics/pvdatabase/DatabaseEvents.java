@@ -0,0 +1,113 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The add and remove events of a database.
+ * The most recent events are kept so that a listener can resume from an earlier version.
+ */
+final class DatabaseEvents {
+    /**
+     * The number of events kept for resume.
+     */
+    static final int HISTORY = 4096;
+    private static final PVDatabaseListener[] emptyListeners = new PVDatabaseListener[0];
+    private final ReentrantLock lock = new ReentrantLock();
+    // following are guarded by lock.
+    private long version = 0;
+    // event with version v is at index v%HISTORY. Names, so that removed records can be collected.
+    private final String[] historyName = new String[HISTORY];
+    private final boolean[] historyAdded = new boolean[HISTORY];
+    // copy on write
+    private volatile PVDatabaseListener[] listeners = emptyListeners;
+
+    long getVersion() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void recordAdded(PVRecord pvRecord) {
+        post(pvRecord.getRecordName(),true);
+    }
+
+    void recordRemoved(PVRecord pvRecord) {
+        post(pvRecord.getRecordName(),false);
+    }
+
+    private void post(String recordName,boolean added) {
+        lock.lock();
+        try {
+            long version = ++this.version;
+            int index = (int)(version%HISTORY);
+            historyName[index] = recordName;
+            historyAdded[index] = added;
+            PVDatabaseListener[] listeners = this.listeners;
+            for(int i=0; i<listeners.length; i++) {
+                call(listeners[i],recordName,added,version);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean addListener(PVDatabaseListener listener,long fromVersion) {
+        lock.lock();
+        try {
+            if(fromVersion>version || fromVersion<version-HISTORY) return false;
+            PVDatabaseListener[] old = listeners;
+            for(int i=0; i<old.length; i++) {
+                if(old[i]==listener) return false;
+            }
+            for(long v=fromVersion+1; v<=version; v++) {
+                int index = (int)(v%HISTORY);
+                call(listener,historyName[index],historyAdded[index],v);
+            }
+            PVDatabaseListener[] xxx = new PVDatabaseListener[old.length+1];
+            System.arraycopy(old,0,xxx,0,old.length);
+            xxx[old.length] = listener;
+            listeners = xxx;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean removeListener(PVDatabaseListener listener) {
+        lock.lock();
+        try {
+            PVDatabaseListener[] old = listeners;
+            for(int i=0; i<old.length; i++) {
+                if(old[i]!=listener) continue;
+                PVDatabaseListener[] xxx = new PVDatabaseListener[old.length-1];
+                System.arraycopy(old,0,xxx,0,i);
+                System.arraycopy(old,i+1,xxx,i,old.length-i-1);
+                listeners = xxx;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void call(PVDatabaseListener listener,String recordName,boolean added,long version) {
+        try {
+            if(added) {
+                listener.recordAdded(recordName,version);
+            } else {
+                listener.recordRemoved(recordName,version);
+            }
+        } catch (Throwable th) {
+            System.err.println("PVDatabaseListener " + recordName + " " + th);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.epics.pvdata.factory.FieldFactory;
+import org.epics.pvdata.misc.SerializeHelper;
+import org.epics.pvdata.pv.DeserializableControl;
+import org.epics.pvdata.pv.Field;
+import org.epics.pvdata.pv.FieldCreate;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.SerializableControl;
+import org.epics.pvdata.pv.Structure;
+
+/**
+ * Snapshot of the data of all records of a database in a memory mapped file.
+ * The file has a header followed by one entry per record:
+ * the record name, a hash of the structure, the size of the data,
+ * and the top level PVStructure in pvData binary serialization.
+ * Restore deserializes directly into the records of the database.
+ * A mapped file is limited to 2 GB.
+ */
+final class DatabaseSnapshot {
+    private static final int MAGIC = 0x50564442; // PVDB
+    private static final int FORMAT = 1;
+    private static final long MAP_SIZE = 64L*1024*1024;
+    private static final int STAGING_SIZE = 1024*1024;
+    private static final FieldCreate fieldCreate = FieldFactory.getFieldCreate();
+
+    private DatabaseSnapshot() {}
+
+    /**
+     * Save the data of every record.
+     * Each record is serialized while it is locked via lockShared,
+     * so each record is consistent but the database keeps running.
+     * @param records The records.
+     * @param fileName The file. It is replaced.
+     * @return The number of records saved.
+     * @throws IOException If the file can not be written.
+     */
+    static int save(Iterable<PVRecord> records,String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName,"rw");
+        try {
+            FileChannel channel = file.getChannel();
+            channel.truncate(0);
+            Writer writer = new Writer(channel);
+            IdentityHashMap<Structure,Integer> hashMap = new IdentityHashMap<Structure,Integer>();
+            ByteBuffer staging = writer.staging;
+            staging.putInt(MAGIC);
+            staging.putInt(FORMAT);
+            staging.putInt(0);
+            writer.flushSerializeBuffer();
+            int number = 0;
+            for(PVRecord pvRecord : records) {
+                PVStructure pvStructure = pvRecord.getPVRecordStructure().getPVStructure();
+                Integer hash = hashMap.get(pvStructure.getStructure());
+                if(hash==null) {
+                    hash = pvStructure.getStructure().toString().hashCode();
+                    hashMap.put(pvStructure.getStructure(),hash);
+                }
+                SerializeHelper.serializeString(pvRecord.getRecordName(),staging,writer);
+                writer.ensureBuffer(8);
+                staging.putInt(hash);
+                writer.flushSerializeBuffer();
+                // the size is only known after serialize.
+                MappedByteBuffer sizeBuffer = writer.reserveInt();
+                int sizeIndex = sizeBuffer.position() - 4;
+                long start = writer.getPosition();
+                pvRecord.lockShared();
+                try {
+                    pvStructure.serialize(staging,writer);
+                } finally {
+                    pvRecord.unlockShared();
+                }
+                writer.flushSerializeBuffer();
+                long size = writer.getPosition() - start;
+                if(size>Integer.MAX_VALUE) throw new IOException(pvRecord.getRecordName() + " too large");
+                sizeBuffer.putInt(sizeIndex,(int)size);
+                ++number;
+            }
+            writer.header.putInt(8,number);
+            writer.header.force();
+            writer.out.force();
+            channel.truncate(writer.getPosition());
+            return number;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Restore the data of the records in a snapshot.
+     * Records are restored in parallel.
+     * Each record is locked and its data posted between beginGroupPut and endGroupPut.
+     * Entries for records that are not in the database or whose structure has changed are skipped.
+     * @param pvDatabase The database.
+     * @param fileName The snapshot file.
+     * @param pool The pool that restores the records.
+     * @return The number of records restored.
+     * @throws IOException If the file can not be read or is not a snapshot.
+     */
+    static int restore(PVDatabase pvDatabase,String fileName,ForkJoinPool pool) throws IOException {
+        MappedByteBuffer in;
+        RandomAccessFile file = new RandomAccessFile(fileName,"r");
+        try {
+            FileChannel channel = file.getChannel();
+            if(channel.size()>Integer.MAX_VALUE) throw new IOException(fileName + " too large");
+            in = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+        } finally {
+            file.close();
+        }
+        Reader reader = new Reader();
+        ArrayList<ForkJoinTask<Boolean>> tasks = new ArrayList<ForkJoinTask<Boolean>>();
+        IdentityHashMap<Structure,Integer> hashMap = new IdentityHashMap<Structure,Integer>();
+        try {
+            if(in.getInt()!=MAGIC || in.getInt()!=FORMAT) throw new IOException(fileName + " is not a snapshot");
+            int number = in.getInt();
+            for(int i=0; i<number; i++) {
+                String recordName = SerializeHelper.deserializeString(in,reader);
+                int hash = in.getInt();
+                int size = in.getInt();
+                int start = in.position();
+                in.position(start + size);
+                PVRecord pvRecord = pvDatabase.findRecord(recordName);
+                if(pvRecord==null) continue;
+                Structure structure = pvRecord.getPVRecordStructure().getPVStructure().getStructure();
+                Integer recordHash = hashMap.get(structure);
+                if(recordHash==null) {
+                    recordHash = structure.toString().hashCode();
+                    hashMap.put(structure,recordHash);
+                }
+                if(recordHash!=hash) {
+                    System.err.println("snapshot " + recordName + " structure changed");
+                    continue;
+                }
+                ByteBuffer data = in.duplicate();
+                data.position(start);
+                data.limit(start + size);
+                tasks.add(pool.submit(new Restore(pvRecord,data.slice())));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException(fileName + " is truncated");
+        } catch (IllegalArgumentException e) {
+            throw new IOException(fileName + " is truncated");
+        }
+        int restored = 0;
+        for(int i=0; i<tasks.size(); i++) {
+            if(tasks.get(i).join()) ++restored;
+        }
+        return restored;
+    }
+
+    /**
+     * Serialize the data of a structure to an array.
+     * The caller must lock the record.
+     * @param pvStructure The data.
+     * @return The serialized data.
+     */
+    static byte[] toBytes(PVStructure pvStructure) {
+        ArrayWriter writer = new ArrayWriter();
+        pvStructure.serialize(writer.staging,writer);
+        writer.flushSerializeBuffer();
+        return writer.out.toByteArray();
+    }
+
+    /**
+     * Deserialize data written by toBytes.
+     * @param pvStructure The data. It must have the structure that was serialized.
+     * @param data The serialized data.
+     */
+    static void fromBytes(PVStructure pvStructure,byte[] data) {
+        pvStructure.deserialize(ByteBuffer.wrap(data),new Reader());
+    }
+
+    private static class Restore implements Callable<Boolean> {
+        private final PVRecord pvRecord;
+        private final ByteBuffer data;
+
+        private Restore(PVRecord pvRecord,ByteBuffer data) {
+            this.pvRecord = pvRecord;
+            this.data = data;
+        }
+
+        public Boolean call() {
+            PVStructure pvStructure = pvRecord.getPVRecordStructure().getPVStructure();
+            try {
+                pvRecord.lock();
+                try {
+                    pvRecord.beginGroupPut();
+                    try {
+                        pvStructure.deserialize(data,new Reader());
+                        pvStructure.postPut();
+                    } finally {
+                        pvRecord.endGroupPut();
+                    }
+                } finally {
+                    pvRecord.unlock();
+                }
+                return Boolean.TRUE;
+            } catch (Throwable th) {
+                System.err.println("snapshot restore " + pvRecord.getRecordName() + " " + th);
+                return Boolean.FALSE;
+            }
+        }
+    }
+
+    // data is serialized into staging, which is copied to the mapped file when full.
+    private static class Writer implements SerializableControl {
+        private final FileChannel channel;
+        private final ByteBuffer staging = ByteBuffer.allocateDirect(STAGING_SIZE);
+        private final MappedByteBuffer header;
+        private MappedByteBuffer out;
+        private long base = 0;
+
+        private Writer(FileChannel channel) throws IOException {
+            this.channel = channel;
+            out = channel.map(FileChannel.MapMode.READ_WRITE,0,MAP_SIZE);
+            header = out;
+        }
+
+        private long getPosition() {
+            return base + out.position();
+        }
+
+        // reserve 4 bytes in the mapped file and return the buffer that holds them.
+        private MappedByteBuffer reserveInt() {
+            ensureMapped(4);
+            out.putInt(0);
+            return out;
+        }
+
+        private void ensureMapped(int size) {
+            if(out.remaining()>=size) return;
+            out.force();
+            base += out.position();
+            try {
+                out = channel.map(FileChannel.MapMode.READ_WRITE,base,Math.max(MAP_SIZE,size));
+            } catch (IOException e) {
+                throw new IllegalStateException("snapshot " + e.getMessage(),e);
+            }
+        }
+
+        public void flushSerializeBuffer() {
+            staging.flip();
+            ensureMapped(staging.remaining());
+            out.put(staging);
+            staging.clear();
+        }
+
+        public void ensureBuffer(int size) {
+            if(staging.remaining()<size) flushSerializeBuffer();
+        }
+
+        public void alignBuffer(int alignment) {}
+
+        public void cachedSerialize(Field field,ByteBuffer buffer) {
+            field.serialize(buffer,this);
+        }
+    }
+
+    // data is serialized into staging, which is copied to out when full.
+    private static class ArrayWriter implements SerializableControl {
+        private final ByteBuffer staging = ByteBuffer.allocate(16*1024);
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        public void flushSerializeBuffer() {
+            staging.flip();
+            out.write(staging.array(),staging.arrayOffset()+staging.position(),staging.remaining());
+            staging.clear();
+        }
+
+        public void ensureBuffer(int size) {
+            if(staging.remaining()<size) flushSerializeBuffer();
+        }
+
+        public void alignBuffer(int alignment) {}
+
+        public void cachedSerialize(Field field,ByteBuffer buffer) {
+            field.serialize(buffer,this);
+        }
+    }
+
+    // all data is in the buffer.
+    private static class Reader implements DeserializableControl {
+        public void ensureData(int size) {}
+
+        public void alignData(int alignment) {}
+
+        public Field cachedDeserialize(ByteBuffer buffer) {
+            return fieldCreate.deserialize(buffer,this);
+        }
+    }
+}
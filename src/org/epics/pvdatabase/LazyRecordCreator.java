@@ -0,0 +1,23 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+import org.epics.pvdata.pv.PVStructure;
+
+/**
+ * Creates the record of a lazy record when it is first accessed.
+ * See PVDatabase.addLazyRecord.
+ */
+public interface LazyRecordCreator {
+    /**
+     * Create the record.
+     * The record must not be added to a database. The database adds it.
+     * @param recordName The record name.
+     * @param pvStructure The data, created from the structure of the lazy record.
+     * @return The record.
+     */
+    PVRecord create(String recordName,PVStructure pvStructure);
+}
@@ -0,0 +1,318 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import org.epics.pvdata.misc.BitSet;
+import org.epics.pvdata.pv.PVArray;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVScalar;
+import org.epics.pvdata.pv.PVScalarArray;
+import org.epics.pvdata.pv.PVString;
+import org.epics.pvdata.pv.PVStringArray;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.PVStructureArray;
+import org.epics.pvdata.pv.PVUnion;
+import org.epics.pvdata.pv.PVUnionArray;
+import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.StringArrayData;
+import org.epics.pvdata.pv.Structure;
+import org.epics.pvdata.pv.StructureArrayData;
+import org.epics.pvdata.pv.UnionArrayData;
+
+/**
+ * Estimate the heap retained by records.
+ * The estimates assume a 64 bit JVM with compressed references.
+ * They are meant to compare records and to size a JVM, not to be exact.
+ * Introspection interfaces are shared by many records and are not included.
+ */
+public final class MemoryEstimator {
+    private static final int OBJECT = 16;
+    private static final int REFERENCE = 4;
+    private static final int ARRAY = 16;
+    // the fields every PVField implementation has.
+    private static final int PVFIELD = 48;
+    // a PVRecordField: the PVField, record, parent, listeners and names.
+    private static final int RECORD_FIELD = 40;
+    // a node of the client list.
+    private static final int CLIENT = 32;
+
+    private MemoryEstimator() {}
+
+    /**
+     * The estimate for one record.
+     */
+    public static final class RecordFootprint {
+        private final String recordName;
+        private final Structure structure;
+        private long dataBytes = 0;
+        private long fieldBytes = 0;
+        private long listenerBytes = 0;
+        private long clientBytes = 0;
+        private long queueBytes = 0;
+        private int numberQueues = 0;
+
+        private RecordFootprint(String recordName,Structure structure) {
+            this.recordName = recordName;
+            this.structure = structure;
+        }
+        /**
+         * @return The record name.
+         */
+        public String getRecordName() { return recordName;}
+        /**
+         * @return The structure of the record.
+         */
+        public Structure getStructure() { return structure;}
+        /**
+         * @return The bytes of the PVStructure of the record.
+         */
+        public long getDataBytes() { return dataBytes;}
+        /**
+         * @return The bytes of the PVRecordField tree and the record itself.
+         */
+        public long getFieldBytes() { return fieldBytes;}
+        /**
+         * @return The bytes of the listener arrays of the record and its fields.
+         */
+        public long getListenerBytes() { return listenerBytes;}
+        /**
+         * @return The bytes of the client list.
+         */
+        public long getClientBytes() { return clientBytes;}
+        /**
+         * @return The bytes held by listeners and clients that implement MemoryFootprint, e.g. monitor queues.
+         */
+        public long getQueueBytes() { return queueBytes;}
+        /**
+         * @return The number of listeners and clients that implement MemoryFootprint.
+         */
+        public int getNumberQueues() { return numberQueues;}
+        /**
+         * @return The sum of all bytes.
+         */
+        public long getTotalBytes() {
+            return dataBytes + fieldBytes + listenerBytes + clientBytes + queueBytes;
+        }
+    }
+
+    /**
+     * The estimate for all records with equal structures.
+     */
+    public static final class StructureFootprint {
+        private final Structure structure;
+        private int numberRecords = 0;
+        private long totalBytes = 0;
+
+        private StructureFootprint(Structure structure) {
+            this.structure = structure;
+        }
+        /**
+         * @return The structure.
+         */
+        public Structure getStructure() { return structure;}
+        /**
+         * @return The number of records.
+         */
+        public int getNumberRecords() { return numberRecords;}
+        /**
+         * @return The sum of the total bytes of the records.
+         */
+        public long getTotalBytes() { return totalBytes;}
+    }
+
+    /**
+     * The estimate for a database, built from the estimates of its records.
+     */
+    public static final class DatabaseFootprint {
+        private final ArrayList<RecordFootprint> records = new ArrayList<RecordFootprint>();
+        private final LinkedHashMap<Structure,StructureFootprint> structureMap = new LinkedHashMap<Structure,StructureFootprint>();
+        private long totalBytes = 0;
+
+        /**
+         * Add the estimate of a record.
+         * @param footprint The estimate.
+         */
+        public void add(RecordFootprint footprint) {
+            records.add(footprint);
+            totalBytes += footprint.getTotalBytes();
+            StructureFootprint structureFootprint = structureMap.get(footprint.structure);
+            if(structureFootprint==null) {
+                structureFootprint = new StructureFootprint(footprint.structure);
+                structureMap.put(footprint.structure,structureFootprint);
+            }
+            ++structureFootprint.numberRecords;
+            structureFootprint.totalBytes += footprint.getTotalBytes();
+        }
+        /**
+         * @return The estimates of the records.
+         */
+        public ArrayList<RecordFootprint> getRecords() { return records;}
+        /**
+         * @return The estimates per structure, in the order the structures were first seen.
+         */
+        public ArrayList<StructureFootprint> getStructures() {
+            return new ArrayList<StructureFootprint>(structureMap.values());
+        }
+        /**
+         * @return The sum of the total bytes of all records.
+         */
+        public long getTotalBytes() { return totalBytes;}
+    }
+
+    /**
+     * Estimate a record.
+     * The caller must lock the record, e.g. via lockShared or lockOtherRecord.
+     * @param pvRecord The record.
+     * @return The estimate.
+     */
+    public static RecordFootprint estimate(PVRecord pvRecord) {
+        PVStructure pvStructure = pvRecord.getPVRecordStructure().getPVStructure();
+        RecordFootprint footprint = new RecordFootprint(pvRecord.getRecordName(),pvStructure.getStructure());
+        footprint.dataBytes = estimate(pvStructure);
+        int numberFields = pvStructure.getNumberFields();
+        // a PVRecordStructure also has the array of its subfields.
+        footprint.fieldBytes = 4*OBJECT + array(numberFields,REFERENCE) + numberFields*(long)RECORD_FIELD
+            + numberFields*(long)REFERENCE;
+        PVListener[] listeners = pvRecord.getListeners();
+        long listenerBytes = array(listeners.length,REFERENCE);
+        for(int offset=0; offset<numberFields; offset++) {
+            int number = pvRecord.getNumberFieldListeners(offset);
+            if(number>0) listenerBytes += array(number,REFERENCE);
+        }
+        footprint.listenerBytes = listenerBytes;
+        PVRecordClient[] clients = pvRecord.getClients();
+        footprint.clientBytes = (clients.length==0) ? 0 : OBJECT + clients.length*(long)CLIENT;
+        for(int i=0; i<listeners.length; i++) addQueue(footprint,listeners[i]);
+        for(int i=0; i<clients.length; i++) addQueue(footprint,clients[i]);
+        return footprint;
+    }
+
+    private static void addQueue(RecordFootprint footprint,Object object) {
+        if(!(object instanceof MemoryFootprint)) return;
+        footprint.queueBytes += ((MemoryFootprint)object).estimateBytes();
+        ++footprint.numberQueues;
+    }
+
+    /**
+     * Estimate every record of a database.
+     * Each record is locked via lockShared while it is estimated.
+     * This must not be called with a record locked. Use estimate(PVRecord) and DatabaseFootprint.add instead.
+     * @param pvDatabase The database.
+     * @return The estimate.
+     */
+    public static DatabaseFootprint estimate(PVDatabase pvDatabase) {
+        DatabaseFootprint footprint = new DatabaseFootprint();
+        for(PVRecord pvRecord : pvDatabase.findRecords("")) {
+            pvRecord.lockShared();
+            try {
+                footprint.add(estimate(pvRecord));
+            } finally {
+                pvRecord.unlockShared();
+            }
+        }
+        return footprint;
+    }
+
+    /**
+     * Estimate a field and all its subfields.
+     * @param pvField The field.
+     * @return The estimate in bytes.
+     */
+    public static long estimate(PVField pvField) {
+        if(pvField==null) return 0;
+        switch(pvField.getField().getType()) {
+        case scalar: {
+            PVScalar pvScalar = (PVScalar)pvField;
+            if(pvScalar.getScalar().getScalarType()==ScalarType.pvString) {
+                return PVFIELD + estimate(((PVString)pvScalar).get());
+            }
+            return PVFIELD + 8;
+        }
+        case scalarArray: {
+            PVScalarArray pvArray = (PVScalarArray)pvField;
+            ScalarType scalarType = pvArray.getScalarArray().getElementType();
+            long bytes = PVFIELD + array(capacity(pvArray),elementSize(scalarType));
+            if(scalarType==ScalarType.pvString) {
+                StringArrayData data = new StringArrayData();
+                int n = ((PVStringArray)pvArray).get(0,pvArray.getLength(),data);
+                for(int i=0; i<n; i++) bytes += estimate(data.data[data.offset+i]);
+            }
+            return bytes;
+        }
+        case structure: {
+            PVField[] pvFields = ((PVStructure)pvField).getPVFields();
+            long bytes = PVFIELD + array(pvFields.length,REFERENCE);
+            for(int i=0; i<pvFields.length; i++) bytes += estimate(pvFields[i]);
+            return bytes;
+        }
+        case structureArray: {
+            PVStructureArray pvArray = (PVStructureArray)pvField;
+            long bytes = PVFIELD + array(capacity(pvArray),REFERENCE);
+            StructureArrayData data = new StructureArrayData();
+            int n = pvArray.get(0,pvArray.getLength(),data);
+            for(int i=0; i<n; i++) bytes += estimate(data.data[data.offset+i]);
+            return bytes;
+        }
+        case union:
+            return PVFIELD + estimate(((PVUnion)pvField).get());
+        case unionArray: {
+            PVUnionArray pvArray = (PVUnionArray)pvField;
+            long bytes = PVFIELD + array(capacity(pvArray),REFERENCE);
+            UnionArrayData data = new UnionArrayData();
+            int n = pvArray.get(0,pvArray.getLength(),data);
+            for(int i=0; i<n; i++) bytes += estimate(data.data[data.offset+i]);
+            return bytes;
+        }
+        }
+        return 0;
+    }
+
+    /**
+     * Estimate a BitSet, e.g. the changed and overrun bit sets of a monitor element.
+     * @param bitSet The bit set.
+     * @return The estimate in bytes.
+     */
+    public static long estimate(BitSet bitSet) {
+        return OBJECT + array((bitSet.size()+63)/64,8);
+    }
+
+    /**
+     * Estimate an array.
+     * @param length The number of elements.
+     * @param elementSize The bytes per element, e.g. 4 for an int[] or a reference.
+     * @return The estimate in bytes.
+     */
+    public static long array(int length,int elementSize) {
+        return align(ARRAY + length*(long)elementSize);
+    }
+
+    private static long estimate(String value) {
+        if(value==null) return 0;
+        // compact strings: one byte per character for latin 1.
+        return 24 + array(value.length(),1);
+    }
+
+    private static int capacity(PVArray pvArray) {
+        return Math.max(pvArray.getCapacity(),pvArray.getLength());
+    }
+
+    private static int elementSize(ScalarType scalarType) {
+        switch(scalarType) {
+        case pvBoolean: case pvByte: case pvUByte: return 1;
+        case pvShort: case pvUShort: return 2;
+        case pvInt: case pvUInt: case pvFloat: return 4;
+        case pvLong: case pvULong: case pvDouble: return 8;
+        default: return REFERENCE;
+        }
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,18 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+/**
+ * Implemented by a PVListener or PVRecordClient that holds memory on behalf of a record,
+ * e.g. the queue of a monitor, so that MemoryEstimator can include it.
+ */
+public interface MemoryFootprint {
+    /**
+     * Estimate the bytes retained. This is called with the record locked.
+     * @return The estimate in bytes.
+     */
+    long estimateBytes();
+}
@@ -0,0 +1,211 @@
+// Copyright information and license terms for this software can be
+// found in the file LICENSE that is included with the distribution
+
+package org.epics.pvdatabase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.epics.pvdata.factory.FieldFactory;
+import org.epics.pvdata.pv.FieldBuilder;
+import org.epics.pvdata.pv.PVInt;
+import org.epics.pvdata.pv.PVLong;
+import org.epics.pvdata.pv.PVLongArray;
+import org.epics.pvdata.pv.PVString;
+import org.epics.pvdata.pv.PVStringArray;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.Structure;
+import org.epics.pvdatabase.MemoryEstimator.DatabaseFootprint;
+import org.epics.pvdatabase.MemoryEstimator.RecordFootprint;
+import org.epics.pvdatabase.MemoryEstimator.StructureFootprint;
+
+/**
+ * Publish estimates of the heap used by the records in the same database.
+ * It is meant to be used via a channelPutGet request.
+ * The argument has two fields: recordName and topN.
+ * If recordName is empty every record is estimated and the topN largest records are returned,
+ * otherwise only the named record.
+ * The result has a field named status, an array field for each part of the record estimates,
+ * with one element per record, the estimates per structure, and the totals of the database.
+ * See MemoryEstimator. All sizes are in bytes.
+ */
+public class MemoryRecord extends PVRecord {
+    PVDatabase pvDatabase;
+    PVString pvRecordName;
+    PVInt pvTopN;
+    PVString pvResult;
+    PVStringArray pvNames;
+    PVStringArray pvStructureIds;
+    PVLongArray pvDataBytes;
+    PVLongArray pvFieldBytes;
+    PVLongArray pvListenerBytes;
+    PVLongArray pvClientBytes;
+    PVLongArray pvQueueBytes;
+    PVLongArray pvNumberQueues;
+    PVLongArray pvTotalBytes;
+    PVStringArray pvStructureId;
+    PVLongArray pvStructureRecords;
+    PVLongArray pvStructureBytes;
+    PVLong pvNumberRecords;
+    PVLong pvDatabaseBytes;
+
+    private static final RecordTemplate template = RecordTemplate.get(createStructure());
+
+    private static Structure createStructure()
+    {
+        FieldBuilder fb = FieldFactory.getFieldCreate().createFieldBuilder();
+        return
+                fb.addNestedStructure("argument").
+                add("recordName",ScalarType.pvString).
+                add("topN",ScalarType.pvInt).
+                endNested().
+                addNestedStructure("result").
+                add("status",ScalarType.pvString).
+                addArray("recordName",ScalarType.pvString).
+                addArray("structure",ScalarType.pvString).
+                addArray("dataBytes",ScalarType.pvLong).
+                addArray("fieldBytes",ScalarType.pvLong).
+                addArray("listenerBytes",ScalarType.pvLong).
+                addArray("clientBytes",ScalarType.pvLong).
+                addArray("queueBytes",ScalarType.pvLong).
+                addArray("numberQueues",ScalarType.pvLong).
+                addArray("totalBytes",ScalarType.pvLong).
+                addArray("structureId",ScalarType.pvString).
+                addArray("structureRecords",ScalarType.pvLong).
+                addArray("structureBytes",ScalarType.pvLong).
+                add("numberRecords",ScalarType.pvLong).
+                add("databaseBytes",ScalarType.pvLong).
+                endNested().
+                createStructure();
+    }
+
+    public static PVRecord create(String recordName)
+    {
+        return create(recordName,PVDatabaseFactory.getMaster());
+    }
+    /**
+     * Create the record and add it to a database.
+     * @param recordName The record name.
+     * @param pvDatabase The database. Estimates are for records in this database.
+     * @return The record.
+     */
+    public static PVRecord create(String recordName,PVDatabase pvDatabase)
+    {
+        PVRecord pvRecord = new MemoryRecord(recordName,pvDatabase);
+        pvDatabase.addRecord(pvRecord);
+        return pvRecord;
+    }
+    private MemoryRecord(String recordName,PVDatabase pvDatabase) {
+        super(recordName,template);
+        PVStructure pvStructure = getPVRecordStructure().getPVStructure();
+        pvRecordName = template.getSubField(pvStructure,PVString.class,"argument.recordName");
+        pvTopN = template.getSubField(pvStructure,PVInt.class,"argument.topN");
+        pvResult = template.getSubField(pvStructure,PVString.class,"result.status");
+        pvNames = template.getSubField(pvStructure,PVStringArray.class,"result.recordName");
+        pvStructureIds = template.getSubField(pvStructure,PVStringArray.class,"result.structure");
+        pvDataBytes = template.getSubField(pvStructure,PVLongArray.class,"result.dataBytes");
+        pvFieldBytes = template.getSubField(pvStructure,PVLongArray.class,"result.fieldBytes");
+        pvListenerBytes = template.getSubField(pvStructure,PVLongArray.class,"result.listenerBytes");
+        pvClientBytes = template.getSubField(pvStructure,PVLongArray.class,"result.clientBytes");
+        pvQueueBytes = template.getSubField(pvStructure,PVLongArray.class,"result.queueBytes");
+        pvNumberQueues = template.getSubField(pvStructure,PVLongArray.class,"result.numberQueues");
+        pvTotalBytes = template.getSubField(pvStructure,PVLongArray.class,"result.totalBytes");
+        pvStructureId = template.getSubField(pvStructure,PVStringArray.class,"result.structureId");
+        pvStructureRecords = template.getSubField(pvStructure,PVLongArray.class,"result.structureRecords");
+        pvStructureBytes = template.getSubField(pvStructure,PVLongArray.class,"result.structureBytes");
+        pvNumberRecords = template.getSubField(pvStructure,PVLong.class,"result.numberRecords");
+        pvDatabaseBytes = template.getSubField(pvStructure,PVLong.class,"result.databaseBytes");
+        this.pvDatabase = pvDatabase;
+    }
+
+    public void process()
+    {
+        String name = pvRecordName.get();
+        DatabaseFootprint footprint = new DatabaseFootprint();
+        if(name.length()>0) {
+            PVRecord pvRecord = pvDatabase.findRecord(name);
+            if(pvRecord==null) {
+                pvResult.put(name + " not found");
+                return;
+            }
+            footprint.add(estimate(pvRecord));
+        } else {
+            for(PVRecord pvRecord : pvDatabase.findRecords("")) footprint.add(estimate(pvRecord));
+        }
+        ArrayList<RecordFootprint> records = new ArrayList<RecordFootprint>(footprint.getRecords());
+        Collections.sort(records,new Comparator<RecordFootprint>() {
+            public int compare(RecordFootprint a,RecordFootprint b) {
+                return Long.compare(b.getTotalBytes(),a.getTotalBytes());
+            }
+        });
+        int topN = pvTopN.get();
+        if(topN<=0) topN = 10;
+        int n = Math.min(topN,records.size());
+        String[] names = new String[n];
+        String[] structureIds = new String[n];
+        long[] dataBytes = new long[n];
+        long[] fieldBytes = new long[n];
+        long[] listenerBytes = new long[n];
+        long[] clientBytes = new long[n];
+        long[] queueBytes = new long[n];
+        long[] numberQueues = new long[n];
+        long[] totalBytes = new long[n];
+        for(int i=0; i<n; i++) {
+            RecordFootprint record = records.get(i);
+            names[i] = record.getRecordName();
+            structureIds[i] = record.getStructure().getID();
+            dataBytes[i] = record.getDataBytes();
+            fieldBytes[i] = record.getFieldBytes();
+            listenerBytes[i] = record.getListenerBytes();
+            clientBytes[i] = record.getClientBytes();
+            queueBytes[i] = record.getQueueBytes();
+            numberQueues[i] = record.getNumberQueues();
+            totalBytes[i] = record.getTotalBytes();
+        }
+        ArrayList<StructureFootprint> structures = footprint.getStructures();
+        Collections.sort(structures,new Comparator<StructureFootprint>() {
+            public int compare(StructureFootprint a,StructureFootprint b) {
+                return Long.compare(b.getTotalBytes(),a.getTotalBytes());
+            }
+        });
+        int m = structures.size();
+        String[] structureId = new String[m];
+        long[] structureRecords = new long[m];
+        long[] structureBytes = new long[m];
+        for(int i=0; i<m; i++) {
+            StructureFootprint structure = structures.get(i);
+            structureId[i] = structure.getStructure().getID();
+            structureRecords[i] = structure.getNumberRecords();
+            structureBytes[i] = structure.getTotalBytes();
+        }
+        pvNames.shareData(names);
+        pvStructureIds.shareData(structureIds);
+        pvDataBytes.shareData(dataBytes);
+        pvFieldBytes.shareData(fieldBytes);
+        pvListenerBytes.shareData(listenerBytes);
+        pvClientBytes.shareData(clientBytes);
+        pvQueueBytes.shareData(queueBytes);
+        pvNumberQueues.shareData(numberQueues);
+        pvTotalBytes.shareData(totalBytes);
+        pvStructureId.shareData(structureId);
+        pvStructureRecords.shareData(structureRecords);
+        pvStructureBytes.shareData(structureBytes);
+        pvNumberRecords.put(footprint.getRecords().size());
+        pvDatabaseBytes.put(footprint.getTotalBytes());
+        pvResult.put("success");
+        super.process();
+    }
+
+    // this record is locked by process.
+    private RecordFootprint estimate(PVRecord pvRecord) {
+        if(pvRecord==this) return MemoryEstimator.estimate(pvRecord);
+        lockOtherRecord(pvRecord);
+        try {
+            return MemoryEstimator.estimate(pvRecord);
+        } finally {
+            pvRecord.unlock();
+        }
+    }
+}
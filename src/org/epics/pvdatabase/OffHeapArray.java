@@ -0,0 +1,177 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.epics.pvdata.pv.ByteArrayData;
+import org.epics.pvdata.pv.DoubleArrayData;
+import org.epics.pvdata.pv.FloatArrayData;
+import org.epics.pvdata.pv.IntArrayData;
+import org.epics.pvdata.pv.LongArrayData;
+import org.epics.pvdata.pv.PVByteArray;
+import org.epics.pvdata.pv.PVDoubleArray;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVFloatArray;
+import org.epics.pvdata.pv.PVIntArray;
+import org.epics.pvdata.pv.PVLongArray;
+import org.epics.pvdata.pv.PVScalarArray;
+import org.epics.pvdata.pv.PVShortArray;
+import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.ShortArrayData;
+import org.epics.pvdata.pv.Type;
+
+/**
+ * Off heap storage for a large numeric scalar array field of a record, e.g. a waveform.
+ * A producer fills a direct ByteBuffer, e.g. from a detector or a FileChannel,
+ * and publish copies it into the field with one bulk copy.
+ * The array of the field is allocated once, with the capacity, and then reused,
+ * so publishing a frame allocates nothing.
+ * Clients, PVCopy and ChannelArrayLocal see the field as usual.
+ * The producer must not write the buffer while publish is active,
+ * and the array of the field must not be replaced via shareData.
+ */
+public final class OffHeapArray {
+    private final PVRecord pvRecord;
+    private final PVScalarArray pvArray;
+    private final ScalarType scalarType;
+    private final int capacity;
+    private final ByteBuffer buffer;
+    // following are only used while the record is locked.
+    private final ByteArrayData byteData = new ByteArrayData();
+    private final ShortArrayData shortData = new ShortArrayData();
+    private final IntArrayData intData = new IntArrayData();
+    private final LongArrayData longData = new LongArrayData();
+    private final FloatArrayData floatData = new FloatArrayData();
+    private final DoubleArrayData doubleData = new DoubleArrayData();
+
+    /**
+     * Create the off heap storage for a field.
+     * @param pvRecord The record.
+     * @param fieldName The full field name of a numeric scalar array, e.g. "value".
+     * @param capacity The maximum number of elements.
+     * @return The off heap array.
+     * @throws IllegalArgumentException If the field is not a numeric scalar array.
+     */
+    public static OffHeapArray create(PVRecord pvRecord,String fieldName,int capacity) {
+        PVField pvField = pvRecord.getPVRecordStructure().getPVStructure().getSubField(fieldName);
+        if(pvField==null || pvField.getField().getType()!=Type.scalarArray) {
+            throw new IllegalArgumentException(fieldName + " is not a scalar array");
+        }
+        PVScalarArray pvArray = (PVScalarArray)pvField;
+        ScalarType scalarType = pvArray.getScalarArray().getElementType();
+        if(elementSize(scalarType)==0) {
+            throw new IllegalArgumentException(fieldName + " is not a numeric array");
+        }
+        return new OffHeapArray(pvRecord,pvArray,scalarType,capacity);
+    }
+
+    private OffHeapArray(PVRecord pvRecord,PVScalarArray pvArray,ScalarType scalarType,int capacity) {
+        this.pvRecord = pvRecord;
+        this.pvArray = pvArray;
+        this.scalarType = scalarType;
+        this.capacity = capacity;
+        buffer = ByteBuffer.allocateDirect(capacity*elementSize(scalarType)).order(ByteOrder.nativeOrder());
+        pvRecord.lock();
+        try {
+            if(pvArray.getCapacity()<capacity) pvArray.setCapacity(capacity);
+        } finally {
+            pvRecord.unlock();
+        }
+    }
+
+    private static int elementSize(ScalarType scalarType) {
+        switch(scalarType) {
+        case pvByte: case pvUByte: return 1;
+        case pvShort: case pvUShort: return 2;
+        case pvInt: case pvUInt: case pvFloat: return 4;
+        case pvLong: case pvULong: case pvDouble: return 8;
+        default: return 0;
+        }
+    }
+    /**
+     * Get the off heap buffer.
+     * It is a direct buffer in native byte order that holds capacity elements.
+     * The producer writes elements starting at index 0.
+     * @return The buffer.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+    /**
+     * Get the maximum number of elements.
+     * @return The capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    /**
+     * Get the field.
+     * @return The scalar array field.
+     */
+    public PVScalarArray getPVScalarArray() {
+        return pvArray;
+    }
+    /**
+     * Copy the first length elements of the buffer to the field and post the put.
+     * The record is locked by this method.
+     * @param length The number of elements.
+     * @throws IllegalArgumentException If length is negative or greater than capacity.
+     */
+    public void publish(int length) {
+        if(length<0 || length>capacity) {
+            throw new IllegalArgumentException("length " + length + " capacity " + capacity);
+        }
+        // the position and limit of buffer belong to the producer.
+        ByteBuffer from = buffer.duplicate().order(ByteOrder.nativeOrder());
+        pvRecord.lock();
+        try {
+            pvRecord.beginGroupPut();
+            try {
+                pvArray.setLength(length);
+                copy(from,length);
+                pvArray.postPut();
+            } finally {
+                pvRecord.endGroupPut();
+            }
+        } finally {
+            pvRecord.unlock();
+        }
+    }
+
+    // get returns the array of the field, so the elements are copied directly into it.
+    private void copy(ByteBuffer from,int length) {
+        switch(scalarType) {
+        case pvByte: case pvUByte:
+            ((PVByteArray)pvArray).get(0,length,byteData);
+            from.get(byteData.data,byteData.offset,length);
+            break;
+        case pvShort: case pvUShort:
+            ((PVShortArray)pvArray).get(0,length,shortData);
+            from.asShortBuffer().get(shortData.data,shortData.offset,length);
+            break;
+        case pvInt: case pvUInt:
+            ((PVIntArray)pvArray).get(0,length,intData);
+            from.asIntBuffer().get(intData.data,intData.offset,length);
+            break;
+        case pvLong: case pvULong:
+            ((PVLongArray)pvArray).get(0,length,longData);
+            from.asLongBuffer().get(longData.data,longData.offset,length);
+            break;
+        case pvFloat:
+            ((PVFloatArray)pvArray).get(0,length,floatData);
+            from.asFloatBuffer().get(floatData.data,floatData.offset,length);
+            break;
+        case pvDouble:
+            ((PVDoubleArray)pvArray).get(0,length,doubleData);
+            from.asDoubleBuffer().get(doubleData.data,doubleData.offset,length);
+            break;
+        default:
+            break;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+import org.epics.pvdata.misc.BitSet;
+
+/**
+ * A PVListener that is told about changes once per group put, via a BitSet,
+ * instead of once per field.
+ * The two dataPut methods of PVListener are not called for a PVBitSetListener,
+ * and PVRecord.addListener ignores the pvCopy argument.
+ */
+public interface PVBitSetListener extends PVListener {
+    /**
+     * Fields of the record have been modified.
+     * This is called just before endGroupPut,
+     * or by postPut if the put was not part of a group put.
+     * @param pvRecord The record.
+     * @param changedBitSet The offsets, in the top level PVStructure of the record,
+     * of the fields for which postPut was called.
+     * If the offset of a structure is set then all its subfields may have changed.
+     * The listener must not modify or keep a reference to the BitSet.
+     */
+    void dataPut(PVRecord pvRecord,BitSet changedBitSet);
+}
@@ -5,6 +5,12 @@
  */
 package org.epics.pvdatabase;
 
+import java.io.IOException;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.epics.pvdata.pv.Structure;
+
 /**
  * Memory resident database of PVRecords.
  * @author mrk
@@ -12,6 +18,11 @@ package org.epics.pvdatabase;
  *
  */
 public interface PVDatabase {
+    /**
+     * Get the name of the database.
+     * @return The name.
+     */
+    String getName();
     /**
      * Destroy.
      * 
@@ -36,9 +47,145 @@ public interface PVDatabase {
      * @return true if the record was removed and false otherwise.
      */
     boolean removeRecord(PVRecord record);
+    /**
+     * Add many records.
+     * The names of all records are checked and claimed first,
+     * then all records that could be added become visible to findRecord at once.
+     * @param records The record instances.
+     * @return One element per record. Element i is false if records[i] was not added,
+     * e.g. because the name is already in the database or appears earlier in records.
+     */
+    boolean[] addRecords(PVRecord[] records);
+    /**
+     * Remove and destroy many records.
+     * All records are removed first, then they are destroyed in parallel
+     * and this waits for them to be destroyed.
+     * @param records The record instances.
+     * @return One element per record. Element i is false if records[i] was not in the database.
+     */
+    boolean[] removeRecords(PVRecord[] records);
+    /**
+     * Add a record that is only created when it is first accessed.
+     * Until then only the name, the structure and the creator are kept.
+     * The first findRecord, and so the first createChannel, process or put of the record,
+     * creates the data and the PVRecord and adds the record to the database.
+     * A lazy record is only in getRecordNames, findRecords and the database events while it exists.
+     * If idleTime is greater than 0 the record is dehydrated again once it has no client and no listener
+     * and was not found for idleTime seconds: its data is kept serialized and the PVRecord is destroyed.
+     * Forward links of a dehydrated record are removed.
+     * Removing or destroying the record removes the lazy record.
+     * @param recordName The record name.
+     * @param structure The structure of the record data.
+     * @param creator The creator of the record or null for a PVRecord.
+     * @param idleTime The idle time in seconds before the record is dehydrated. 0 means never.
+     * @return false if the name is already in the database.
+     */
+    boolean addLazyRecord(String recordName,Structure structure,LazyRecordCreator creator,double idleTime);
+    /**
+     * Is a record or a lazy record with the name in the database.
+     * Unlike findRecord this does not create a lazy record.
+     * @param recordName The record name.
+     * @return (false,true) if the record (is not, is) in the database.
+     */
+    boolean containsRecord(String recordName);
+    /**
+     * Get the version of the database.
+     * It starts at 0 and is incremented by every add or remove of a record.
+     * @return The version.
+     */
+    long getVersion();
+    /**
+     * Add a listener for records being added and removed.
+     * The events after fromVersion are first replayed to the listener.
+     * To mirror the database call getVersion, then getRecordNames,
+     * then addListener with the version. Events replayed between the two calls may repeat names.
+     * @param listener The listener.
+     * @param fromVersion The last version the listener has seen.
+     * @return false if the listener is already added or events after fromVersion are no longer kept.
+     * In the latter case the listener must start again from getVersion.
+     */
+    boolean addListener(PVDatabaseListener listener,long fromVersion);
+    /**
+     * Remove a listener.
+     * @param listener The listener.
+     * @return false if the listener was not added.
+     */
+    boolean removeListener(PVDatabaseListener listener);
+    /**
+     * Save the data of all records to a memory mapped file.
+     * Each record is locked while it is saved, but the database is not stopped,
+     * so each record is consistent but different records may be saved at different times.
+     * @param fileName The file name. An existing file is replaced.
+     * @return The number of records saved.
+     * @throws IOException If the file can not be written.
+     */
+    int saveSnapshot(String fileName) throws IOException;
+    /**
+     * Restore the data of the records of the database from a file written by saveSnapshot.
+     * The data is deserialized directly into the existing records, in parallel.
+     * Entries for records that are not in the database or whose structure has changed are skipped.
+     * @param fileName The file name.
+     * @return The number of records restored.
+     * @throws IOException If the file can not be read or is not a snapshot.
+     */
+    int restoreSnapshot(String fileName) throws IOException;
     /**
      * Get an array of the record names.
      * @return The array of names.
      */
     String[] getRecordNames();
+    /**
+     * Get a view of the record names.
+     * Unlike getRecordNames nothing is copied.
+     * The view can not be modified and reflects later adds and removes.
+     * @return The set of names.
+     */
+    Set<String> getRecordNameSet();
+    /**
+     * Find the records whose name starts with prefix.
+     * The result is iterated lazily, in name order.
+     * For a sharded database the records of each partition are returned in turn.
+     * @param prefix The prefix, e.g. "SYSTEM:DEVICE:".
+     * @return The records.
+     */
+    Iterable<PVRecord> findRecords(String prefix);
+    /**
+     * Find the records whose name matches a glob.
+     * '*' matches any sequence of characters and '?' matches any one character.
+     * Only the records that start with the characters before the first wildcard are visited.
+     * @param glob The glob, e.g. "SYSTEM:*:TEMP".
+     * @return The records, iterated lazily as for findRecords(prefix).
+     */
+    Iterable<PVRecord> findRecordsByGlob(String glob);
+    /**
+     * Find the records whose whole name matches a regular expression.
+     * Every record is visited.
+     * @param pattern The regular expression.
+     * @return The records, iterated lazily as for findRecords(prefix).
+     */
+    Iterable<PVRecord> findRecords(Pattern pattern);
+    /**
+     * Add a forward link.
+     * When source is processed via PVRecord.invokeProcess, target is processed after source is unlocked.
+     * All records downstream of source are processed in topological order,
+     * each record once, and records that do not depend on each other in parallel.
+     * @param source The source record.
+     * @param target The target record.
+     * @return false if either record is not in the database, the link already exists,
+     * or the link would create a cycle.
+     */
+    boolean addLink(PVRecord source,PVRecord target);
+    /**
+     * Remove a forward link.
+     * @param source The source record.
+     * @param target The target record.
+     * @return false if the link does not exist.
+     */
+    boolean removeLink(PVRecord source,PVRecord target);
+    /**
+     * Get the targets of the forward links of a record.
+     * @param source The source record.
+     * @return The array of targets.
+     */
+    PVRecord[] getLinks(PVRecord source);
 }
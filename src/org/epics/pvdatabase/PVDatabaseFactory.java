@@ -15,9 +15,24 @@ package org.epics.pvdatabase;
  *
  */
 
-import java.util.LinkedHashMap;
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import org.epics.pvdata.factory.PVDataFactory;
+import org.epics.pvdata.pv.PVDataCreate;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.Structure;
 
 
 
@@ -27,108 +42,852 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  */
 public class PVDatabaseFactory {
 
+    /**
+     * The name of the master database.
+     */
+    public static final String MASTER = "master";
+
     /**
      * Get the master database.
-     * Currently only a single database is possible. and is named master.
-     * @return Interface to the single database instance.
+     * This is the database named MASTER.
+     * @return Interface to the master database.
      */
-    public static synchronized PVDatabase getMaster() {
-        if(master==null) master = new Database();
-        return master;
+    public static PVDatabase getMaster() {
+        return getDatabase(MASTER);
+    }
+    /**
+     * Get a database by name.
+     * The database is created if it does not exist.
+     * Each database has its own records, links, and lifecycle.
+     * Destroying a database removes its name,
+     * so a later call with the same name creates a new database.
+     * @param name The database name.
+     * @return Interface to the database.
+     */
+    public static PVDatabase getDatabase(String name) {
+        PVDatabase pvDatabase = databaseMap.get(name);
+        if(pvDatabase!=null) return pvDatabase;
+        Database database = new Database(name,null,new Links(),new DatabaseEvents());
+        pvDatabase = databaseMap.putIfAbsent(name,database);
+        return (pvDatabase==null) ? database : pvDatabase;
+    }
+    /**
+     * Get a database that spreads its records across partitions by the hash of the record name.
+     * Each partition has its own registry.
+     * Forward links may connect records in different partitions.
+     * If a database with the name already exists it is returned.
+     * @param name The database name.
+     * @param numberShards The number of partitions.
+     * @return Interface to the database.
+     * @throws IllegalArgumentException If a database with the name exists
+     * and is not sharded or has a different number of partitions.
+     */
+    public static PVDatabase getShardedDatabase(String name,int numberShards) {
+        numberShards = Math.max(1,numberShards);
+        PVDatabase pvDatabase = databaseMap.get(name);
+        if(pvDatabase==null) {
+            ShardedDatabase database = new ShardedDatabase(name,numberShards);
+            pvDatabase = databaseMap.putIfAbsent(name,database);
+            if(pvDatabase==null) return database;
+        }
+        if(!(pvDatabase instanceof ShardedDatabase)) {
+            throw new IllegalArgumentException("database " + name + " is not sharded");
+        }
+        int existing = ((ShardedDatabase)pvDatabase).shards.length;
+        if(existing!=numberShards) {
+            throw new IllegalArgumentException(
+                "database " + name + " has " + existing + " partitions not " + numberShards);
+        }
+        return pvDatabase;
+    }
+    /**
+     * Get the names of all databases.
+     * @return The array of names.
+     */
+    public static String[] getDatabaseNames() {
+        return databaseMap.keySet().toArray(new String[0]);
+    }
+
+    private static final ConcurrentHashMap<String,PVDatabase> databaseMap = new ConcurrentHashMap<String,PVDatabase>();
+    private static final PVDataCreate pvDataCreate = PVDataFactory.getPVDataCreate();
+    // executes forward links, restoreSnapshot and the destroy of removeRecords for every database.
+    private static final ForkJoinPool linkPool = new ForkJoinPool();
+    // dehydrates idle lazy records. No thread is started until a lazy record has an idle time.
+    private static final ScheduledThreadPoolExecutor idleTimer = new ScheduledThreadPoolExecutor(1,new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,"lazyRecordIdle");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // a record that is created when it is first found.
+    private static class Lazy {
+        private final String name;
+        private final Structure structure;
+        private final LazyRecordCreator creator;
+        private final long idleTime;
+        // following are guarded by this.
+        // the record while it exists and the serialized data while dehydrated.
+        private PVRecord pvRecord = null;
+        private byte[] data = null;
+        private volatile long lastAccess = 0;
+
+        private Lazy(String name,Structure structure,LazyRecordCreator creator,double idleTime) {
+            this.name = name;
+            this.structure = structure;
+            this.creator = creator;
+            this.idleTime = (long)(idleTime*1e9);
+        }
     }
 
-    private static Database master = null;
+    // the records added by one call to addRecords.
+    private static class Batch {
+        private volatile boolean isPublished = false;
+    }
+
+    private static Database getShard(Database[] shards,String recordName) {
+        if(shards.length==1) return shards[0];
+        return shards[(recordName.hashCode() & 0x7fffffff) % shards.length];
+    }
+
+    // All names are reserved first, then every reserved record becomes visible at once.
+    private static boolean[] addRecords(Database[] shards,PVRecord[] records) {
+        boolean[] result = new boolean[records.length];
+        Batch batch = new Batch();
+        HashSet<String> names = new HashSet<String>();
+        for(int i=0; i<records.length; i++) {
+            PVRecord record = records[i];
+            if(record==null || !names.add(record.getRecordName())) continue;
+            result[i] = getShard(shards,record.getRecordName()).reserve(record,batch,null);
+        }
+        batch.isPublished = true;
+        for(int i=0; i<records.length; i++) {
+            if(!result[i]) continue;
+            result[i] = getShard(shards,records[i].getRecordName()).publish(records[i]);
+        }
+        return result;
+    }
+
+    // The records are destroyed outside of any lock and in parallel.
+    private static boolean[] removeRecords(Database[] shards,Links links,PVRecord[] records) {
+        boolean[] result = new boolean[records.length];
+        ArrayList<PVRecord> removed = new ArrayList<PVRecord>(records.length);
+        for(int i=0; i<records.length; i++) {
+            PVRecord record = records[i];
+            if(record==null) continue;
+            result[i] = getShard(shards,record.getRecordName()).unregister(record,true);
+            if(result[i]) removed.add(record);
+        }
+        links.removeAll(removed);
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(removed.size());
+        for(final PVRecord record : removed) {
+            final Database shard = getShard(shards,record.getRecordName());
+            tasks.add(linkPool.submit(new Runnable() {
+                public void run() {
+                    record.destroy();
+                    record.detachDatabase(shard.owner);
+                }
+            }));
+        }
+        for(int i=0; i<tasks.size(); i++) {
+            try {
+                tasks.get(i).join();
+            } catch (Throwable th) {
+                System.err.println("destroy " + removed.get(i).getRecordName() + " " + th);
+            }
+        }
+        return result;
+    }
 
     private static class Database implements PVDatabase {
+        private final String name;
+        // the database the records belong to. It is not this for a partition of a ShardedDatabase.
+        private final PVDatabase owner;
+        private final Links links;
+        private final DatabaseEvents events;
+        // The registry is lock free. recordMap is used to find records and
+        // orderMap, keyed by the sequence number of addRecord, keeps insertion order.
+        private ConcurrentHashMap<String,Entry> recordMap = new ConcurrentHashMap<String,Entry>();
+        private ConcurrentSkipListMap<Long,PVRecord> orderMap = new ConcurrentSkipListMap<Long,PVRecord>();
+        private RecordNameIndex nameIndex = new RecordNameIndex();
+        private ConcurrentHashMap<String,Lazy> lazyMap = new ConcurrentHashMap<String,Lazy>();
+        private AtomicLong sequence = new AtomicLong(0);
+        private volatile boolean isDestroyed = false;
 
-        private LinkedHashMap<String,PVRecord> recordMap = new LinkedHashMap<String,PVRecord>();
-        private ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
-        private boolean isDestroyed = false;
+        private static class Entry {
+            private final PVRecord pvRecord;
+            private final long sequence;
+            // null or the batch of addRecords. The record is not visible until the batch is published.
+            private final Batch batch;
+            // null or the lazy record that created pvRecord.
+            private final Lazy lazy;
+            // set when publish has finished. Until then the record can not be removed.
+            private volatile boolean isAdded = false;
+
+            private Entry(PVRecord pvRecord,long sequence,Batch batch,Lazy lazy) {
+                this.pvRecord = pvRecord;
+                this.sequence = sequence;
+                this.batch = batch;
+                this.lazy = lazy;
+            }
 
-        private Database() {}
+            private boolean isPublished() {
+                return (batch==null) ? isAdded : batch.isPublished;
+            }
+        }
+
+        private Database(String name,PVDatabase owner,Links links,DatabaseEvents events) {
+            this.name = name;
+            this.owner = (owner==null) ? this : owner;
+            this.links = links;
+            this.events = events;
+        }
 
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#getName()
+         */
+        public String getName() {
+            return name;
+        }
         /* (non-Javadoc)
          * @see org.epics.pvdatabase.PVDatabase#destroy()
          */
         public void destroy()
         {
-            rwLock.writeLock().lock();
-            try {
+            synchronized(this) {
                 if(isDestroyed) return;
                 isDestroyed = true;
-            } finally {
-                rwLock.writeLock().unlock();
             }
-            for (Map.Entry<String, PVRecord> entry : recordMap.entrySet())
+            databaseMap.remove(name,this);
+            for(PVRecord pvRecord : orderMap.values())
             {
-                entry.getValue().destroy();
+                links.removeAll(pvRecord);
+                events.recordRemoved(pvRecord);
+                pvRecord.destroy();
             }
             recordMap.clear();
+            orderMap.clear();
+            nameIndex.clear();
+            lazyMap.clear();
         }
         /* (non-Javadoc)
          * @see org.epics.pvdatabase.PVDatabase#findRecord(java.lang.String)
          */
         public PVRecord findRecord(String recordName) {
-            rwLock.readLock().lock();
-            try {
-                if(isDestroyed) return null;
-                return recordMap.get(recordName);
-            } finally {
-                rwLock.readLock().unlock();
+            if(isDestroyed) return null;
+            Entry entry = recordMap.get(recordName);
+            if(entry!=null) {
+                if(!entry.isPublished()) {
+                    // a lazy record being created. materialize waits for it.
+                    return (entry.lazy==null) ? null : materialize(entry.lazy);
+                }
+                if(entry.lazy!=null) entry.lazy.lastAccess = System.nanoTime();
+                return entry.pvRecord;
             }
+            if(lazyMap.isEmpty()) return null;
+            Lazy lazy = lazyMap.get(recordName);
+            return (lazy==null) ? null : materialize(lazy);
         }
         /* (non-Javadoc)
          * @see org.epics.pvdatabase.PVDatabase#addRecord(org.epics.pvdatabase.PVRecord)
          */
         public boolean addRecord(PVRecord record) {
-            rwLock.writeLock().lock();
-            try {
-                if(isDestroyed) return false;
-                String key = record.getRecordName();
-                if(recordMap.containsKey(key)) {
-                    return false;
+            if(!reserve(record,null,null)) return false;
+            return publish(record);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#addRecords(org.epics.pvdatabase.PVRecord[])
+         */
+        public boolean[] addRecords(PVRecord[] records) {
+            return PVDatabaseFactory.addRecords(new Database[] {this},records);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#removeRecord(org.epics.pvdatabase.PVRecord)
+         */
+        public boolean removeRecord(PVRecord record) {
+            if(!unregister(record,true)) return false;
+            links.removeAll(record);
+            record.destroy();
+            record.detachDatabase(owner);
+            return true;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#removeRecords(org.epics.pvdatabase.PVRecord[])
+         */
+        public boolean[] removeRecords(PVRecord[] records) {
+            return PVDatabaseFactory.removeRecords(new Database[] {this},links,records);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#addLazyRecord(java.lang.String, org.epics.pvdata.pv.Structure, org.epics.pvdatabase.LazyRecordCreator, double)
+         */
+        public boolean addLazyRecord(String recordName,Structure structure,LazyRecordCreator creator,double idleTime) {
+            if(isDestroyed) return false;
+            if(recordMap.containsKey(recordName)) return false;
+            Lazy lazy = new Lazy(recordName,structure,creator,idleTime);
+            if(lazyMap.putIfAbsent(recordName,lazy)!=null) return false;
+            // reserve does the opposite, so one of a racing addRecord and addLazyRecord fails.
+            if(recordMap.containsKey(recordName)) {
+                lazyMap.remove(recordName,lazy);
+                return false;
+            }
+            return true;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#containsRecord(java.lang.String)
+         */
+        public boolean containsRecord(String recordName) {
+            if(isDestroyed) return false;
+            Entry entry = recordMap.get(recordName);
+            if(entry!=null && entry.isPublished()) return true;
+            return lazyMap.containsKey(recordName);
+        }
+
+        // claim the name of record. It is only visible after batch is published.
+        // lazy is null unless the record is created by a lazy record.
+        private boolean reserve(PVRecord record,Batch batch,Lazy lazy) {
+            if(isDestroyed) return false;
+            String key = record.getRecordName();
+            if(lazy==null && lazyMap.containsKey(key)) return false;
+            if(!record.attachDatabase(owner)) return false;
+            Entry entry = new Entry(record,sequence.getAndIncrement(),batch,lazy);
+            if(recordMap.putIfAbsent(key,entry)!=null) {
+                record.detachDatabase(owner);
+                return false;
+            }
+            if(lazy==null && lazyMap.containsKey(key)) {
+                recordMap.remove(key,entry);
+                record.detachDatabase(owner);
+                return false;
+            }
+            return true;
+        }
+
+        // create the record of a lazy record, with the data it had when it was dehydrated.
+        private PVRecord materialize(Lazy lazy) {
+            synchronized(lazy) {
+                if(lazy.pvRecord!=null) return lazy.pvRecord;
+                if(lazyMap.get(lazy.name)!=lazy) return null;
+                PVStructure pvStructure = pvDataCreate.createPVStructure(lazy.structure);
+                if(lazy.data!=null) DatabaseSnapshot.fromBytes(pvStructure,lazy.data);
+                PVRecord record = (lazy.creator==null)
+                    ? new PVRecord(lazy.name,pvStructure)
+                    : lazy.creator.create(lazy.name,pvStructure);
+                if(!reserve(record,null,lazy)) return null;
+                if(!publish(record)) return null;
+                lazy.pvRecord = record;
+                lazy.data = null;
+                lazy.lastAccess = System.nanoTime();
+                if(lazy.idleTime>0) scheduleIdle(lazy,lazy.idleTime);
+                return record;
+            }
+        }
+
+        private void scheduleIdle(final Lazy lazy,long delay) {
+            idleTimer.schedule(new Runnable() {
+                public void run() {
+                    dehydrate(lazy);
                 }
-                recordMap.put(key,record);
-            } finally {
-                rwLock.writeLock().unlock();
+            },delay,TimeUnit.NANOSECONDS);
+        }
+
+        // Keep the data of an idle lazy record and destroy the record.
+        // The record is tried, not locked, so the timer never waits for a record.
+        private void dehydrate(Lazy lazy) {
+            PVRecord record;
+            synchronized(lazy) {
+                record = lazy.pvRecord;
+                if(record==null || isDestroyed || lazyMap.get(lazy.name)!=lazy) return;
+                long idle = System.nanoTime() - lazy.lastAccess;
+                if(idle<lazy.idleTime) {
+                    scheduleIdle(lazy,lazy.idleTime - idle);
+                    return;
+                }
+                if(!record.tryLock()) {
+                    scheduleIdle(lazy,lazy.idleTime);
+                    return;
+                }
+                try {
+                    if(!record.isIdle()) {
+                        scheduleIdle(lazy,lazy.idleTime);
+                        return;
+                    }
+                    // while the record is locked no client can be added before it is unregistered.
+                    if(!unregister(record,false)) return;
+                    lazy.data = DatabaseSnapshot.toBytes(record.getPVRecordStructure().getPVStructure());
+                } finally {
+                    record.unlock();
+                }
+                lazy.pvRecord = null;
+            }
+            links.removeAll(record);
+            record.destroy();
+            record.detachDatabase(owner);
+        }
+
+        // add a reserved record to the ordered views.
+        private boolean publish(PVRecord record) {
+            Entry entry = recordMap.get(record.getRecordName());
+            if(entry==null || entry.pvRecord!=record) {
+                record.detachDatabase(owner);
+                return false;
             }
+            orderMap.put(entry.sequence,record);
+            nameIndex.add(record);
+            if(isDestroyed) {
+                // lost a race with destroy.
+                recordMap.remove(record.getRecordName(),entry);
+                orderMap.remove(entry.sequence);
+                nameIndex.remove(record);
+                record.detachDatabase(owner);
+                return false;
+            }
+            events.recordAdded(record);
+            entry.isAdded = true;
+            return true;
+        }
+
+        // remove record from the registry but do not destroy it.
+        // removeLazy is false when a lazy record is dehydrated, so that it can be created again.
+        private boolean unregister(PVRecord record,boolean removeLazy) {
+            if(isDestroyed) return false;
+            String key = record.getRecordName();
+            Entry entry = recordMap.get(key);
+            if(entry==null || entry.pvRecord!=record || !entry.isAdded) return false;
+            if(!recordMap.remove(key,entry)) return false;
+            if(removeLazy && entry.lazy!=null) lazyMap.remove(key,entry.lazy);
+            orderMap.remove(entry.sequence);
+            nameIndex.remove(record);
+            events.recordRemoved(record);
             return true;
         }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#getRecordNames()
+         */
+        public String[] getRecordNames() {
+            if(isDestroyed) {
+                String[] xxx = new String[0];
+                return xxx;
+            }
+            ArrayList<String> names = new ArrayList<String>(orderMap.size());
+            for(PVRecord pvRecord : orderMap.values()) {
+                names.add(pvRecord.getRecordName());
+            }
+            return names.toArray(new String[names.size()]);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#getRecordNameSet()
+         */
+        public Set<String> getRecordNameSet() {
+            return nameIndex.getNames();
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#findRecords(java.lang.String)
+         */
+        public Iterable<PVRecord> findRecords(String prefix) {
+            return nameIndex.findRecords(prefix);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#findRecordsByGlob(java.lang.String)
+         */
+        public Iterable<PVRecord> findRecordsByGlob(String glob) {
+            return nameIndex.findRecordsByGlob(glob);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#findRecords(java.util.regex.Pattern)
+         */
+        public Iterable<PVRecord> findRecords(Pattern pattern) {
+            return nameIndex.findRecords(pattern);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#getVersion()
+         */
+        public long getVersion() {
+            return events.getVersion();
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#addListener(org.epics.pvdatabase.PVDatabaseListener, long)
+         */
+        public boolean addListener(PVDatabaseListener listener,long fromVersion) {
+            return events.addListener(listener,fromVersion);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#removeListener(org.epics.pvdatabase.PVDatabaseListener)
+         */
+        public boolean removeListener(PVDatabaseListener listener) {
+            return events.removeListener(listener);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#saveSnapshot(java.lang.String)
+         */
+        public int saveSnapshot(String fileName) throws IOException {
+            return DatabaseSnapshot.save(findRecords(""),fileName);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#restoreSnapshot(java.lang.String)
+         */
+        public int restoreSnapshot(String fileName) throws IOException {
+            return DatabaseSnapshot.restore(this,fileName,linkPool);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#addLink(org.epics.pvdatabase.PVRecord, org.epics.pvdatabase.PVRecord)
+         */
+        public boolean addLink(PVRecord source,PVRecord target) {
+            return links.add(this,source,target);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#removeLink(org.epics.pvdatabase.PVRecord, org.epics.pvdatabase.PVRecord)
+         */
+        public boolean removeLink(PVRecord source,PVRecord target) {
+            return links.remove(source,target);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#getLinks(org.epics.pvdatabase.PVRecord)
+         */
+        public PVRecord[] getLinks(PVRecord source) {
+            return links.get(source);
+        }
+    }
+
+    private static class ShardedDatabase implements PVDatabase {
+        private final String name;
+        private final Database[] shards;
+        private final Links links = new Links();
+        private final DatabaseEvents events = new DatabaseEvents();
+        private final AtomicBoolean isDestroyed = new AtomicBoolean(false);
+
+        private ShardedDatabase(String name,int numberShards) {
+            this.name = name;
+            shards = new Database[numberShards];
+            for(int i=0; i<numberShards; i++) {
+                shards[i] = new Database(name + "." + i,this,links,events);
+            }
+        }
+
+
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#getName()
+         */
+        public String getName() {
+            return name;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#destroy()
+         */
+        public void destroy() {
+            if(!isDestroyed.compareAndSet(false,true)) return;
+            databaseMap.remove(name,this);
+            for(int i=0; i<shards.length; i++) shards[i].destroy();
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#findRecord(java.lang.String)
+         */
+        public PVRecord findRecord(String recordName) {
+            return getShard(shards,recordName).findRecord(recordName);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#addRecord(org.epics.pvdatabase.PVRecord)
+         */
+        public boolean addRecord(PVRecord record) {
+            return getShard(shards,record.getRecordName()).addRecord(record);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#addRecords(org.epics.pvdatabase.PVRecord[])
+         */
+        public boolean[] addRecords(PVRecord[] records) {
+            return PVDatabaseFactory.addRecords(shards,records);
+        }
         /* (non-Javadoc)
          * @see org.epics.pvdatabase.PVDatabase#removeRecord(org.epics.pvdatabase.PVRecord)
          */
         public boolean removeRecord(PVRecord record) {
-            rwLock.writeLock().lock();
-            try {
-                if(isDestroyed) return false;
-                String key = record.getRecordName();
-                PVRecord pvRecord = recordMap.remove(key);
-                if(pvRecord==null) return false;
-                pvRecord.destroy();
-                return true;
-            } finally {
-                rwLock.writeLock().unlock();
-            }
+            return getShard(shards,record.getRecordName()).removeRecord(record);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#removeRecords(org.epics.pvdatabase.PVRecord[])
+         */
+        public boolean[] removeRecords(PVRecord[] records) {
+            return PVDatabaseFactory.removeRecords(shards,links,records);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#addLazyRecord(java.lang.String, org.epics.pvdata.pv.Structure, org.epics.pvdatabase.LazyRecordCreator, double)
+         */
+        public boolean addLazyRecord(String recordName,Structure structure,LazyRecordCreator creator,double idleTime) {
+            return getShard(shards,recordName).addLazyRecord(recordName,structure,creator,idleTime);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#containsRecord(java.lang.String)
+         */
+        public boolean containsRecord(String recordName) {
+            return getShard(shards,recordName).containsRecord(recordName);
         }
         /* (non-Javadoc)
          * @see org.epics.pvdatabase.PVDatabase#getRecordNames()
          */
         public String[] getRecordNames() {
-            rwLock.readLock().lock();
+            ArrayList<String> names = new ArrayList<String>();
+            for(int i=0; i<shards.length; i++) {
+                names.addAll(Arrays.asList(shards[i].getRecordNames()));
+            }
+            return names.toArray(new String[names.size()]);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#getRecordNameSet()
+         */
+        public Set<String> getRecordNameSet() {
+            return new AbstractSet<String>() {
+                public boolean contains(Object o) {
+                    return (o instanceof String) && findRecord((String)o)!=null;
+                }
+                public int size() {
+                    int size = 0;
+                    for(int i=0; i<shards.length; i++) size += shards[i].getRecordNameSet().size();
+                    return size;
+                }
+                public Iterator<String> iterator() {
+                    final Iterator<PVRecord> iterator = findRecords("").iterator();
+                    return new Iterator<String>() {
+                        public boolean hasNext() { return iterator.hasNext();}
+                        public String next() { return iterator.next().getRecordName();}
+                        public void remove() { throw new UnsupportedOperationException();}
+                    };
+                }
+            };
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#findRecords(java.lang.String)
+         */
+        public Iterable<PVRecord> findRecords(String prefix) {
+            ArrayList<Iterable<PVRecord>> parts = new ArrayList<Iterable<PVRecord>>(shards.length);
+            for(int i=0; i<shards.length; i++) parts.add(shards[i].findRecords(prefix));
+            return concat(parts);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#findRecordsByGlob(java.lang.String)
+         */
+        public Iterable<PVRecord> findRecordsByGlob(String glob) {
+            ArrayList<Iterable<PVRecord>> parts = new ArrayList<Iterable<PVRecord>>(shards.length);
+            for(int i=0; i<shards.length; i++) parts.add(shards[i].findRecordsByGlob(glob));
+            return concat(parts);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#findRecords(java.util.regex.Pattern)
+         */
+        public Iterable<PVRecord> findRecords(Pattern pattern) {
+            ArrayList<Iterable<PVRecord>> parts = new ArrayList<Iterable<PVRecord>>(shards.length);
+            for(int i=0; i<shards.length; i++) parts.add(shards[i].findRecords(pattern));
+            return concat(parts);
+        }
+
+        private static Iterable<PVRecord> concat(final ArrayList<Iterable<PVRecord>> parts) {
+            return new Iterable<PVRecord>() {
+                public Iterator<PVRecord> iterator() {
+                    return new Iterator<PVRecord>() {
+                        private int index = 0;
+                        private Iterator<PVRecord> current = null;
+
+                        public boolean hasNext() {
+                            while(current==null || !current.hasNext()) {
+                                if(index>=parts.size()) return false;
+                                current = parts.get(index++).iterator();
+                            }
+                            return true;
+                        }
+                        public PVRecord next() {
+                            if(!hasNext()) throw new NoSuchElementException();
+                            return current.next();
+                        }
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#getVersion()
+         */
+        public long getVersion() {
+            return events.getVersion();
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#addListener(org.epics.pvdatabase.PVDatabaseListener, long)
+         */
+        public boolean addListener(PVDatabaseListener listener,long fromVersion) {
+            return events.addListener(listener,fromVersion);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#removeListener(org.epics.pvdatabase.PVDatabaseListener)
+         */
+        public boolean removeListener(PVDatabaseListener listener) {
+            return events.removeListener(listener);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#saveSnapshot(java.lang.String)
+         */
+        public int saveSnapshot(String fileName) throws IOException {
+            return DatabaseSnapshot.save(findRecords(""),fileName);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#restoreSnapshot(java.lang.String)
+         */
+        public int restoreSnapshot(String fileName) throws IOException {
+            return DatabaseSnapshot.restore(this,fileName,linkPool);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#addLink(org.epics.pvdatabase.PVRecord, org.epics.pvdatabase.PVRecord)
+         */
+        public boolean addLink(PVRecord source,PVRecord target) {
+            return links.add(this,source,target);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#removeLink(org.epics.pvdatabase.PVRecord, org.epics.pvdatabase.PVRecord)
+         */
+        public boolean removeLink(PVRecord source,PVRecord target) {
+            return links.remove(source,target);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVDatabase#getLinks(org.epics.pvdatabase.PVRecord)
+         */
+        public PVRecord[] getLinks(PVRecord source) {
+            return links.get(source);
+        }
+    }
+
+    // The forward links of a database.
+    private static class Links {
+        // source to targets and target to sources.
+        private HashMap<PVRecord,LinkedHashSet<PVRecord>> linkMap = new HashMap<PVRecord,LinkedHashSet<PVRecord>>();
+        private HashMap<PVRecord,HashSet<PVRecord>> reverseLinkMap = new HashMap<PVRecord,HashSet<PVRecord>>();
+        private ReentrantLock linkLock = new ReentrantLock();
+
+        private boolean add(PVDatabase pvDatabase,PVRecord source,PVRecord target) {
+            if(source==target) return false;
+            // removeRecord removes from the registry before it calls removeAll,
+            // so a link can not be added to a record that has been removed.
+            linkLock.lock();
             try {
-                if(isDestroyed) {
-                    String[] xxx = new String[0];
-                    return xxx;
+                if(pvDatabase.findRecord(source.getRecordName())!=source) return false;
+                if(pvDatabase.findRecord(target.getRecordName())!=target) return false;
+                LinkedHashSet<PVRecord> targets = linkMap.get(source);
+                if(targets!=null && targets.contains(target)) return false;
+                if(isReachable(target,source)) return false;
+                if(targets==null) {
+                    targets = new LinkedHashSet<PVRecord>();
+                    linkMap.put(source,targets);
                 }
-                String[] array = new String[recordMap.size()];
-                int index = 0;
-                Set<String> keys = recordMap.keySet();
-                for(String key: keys) {
-                    array[index++] = key;
+                targets.add(target);
+                HashSet<PVRecord> sources = reverseLinkMap.get(target);
+                if(sources==null) {
+                    sources = new HashSet<PVRecord>();
+                    reverseLinkMap.put(target,sources);
                 }
-                return array;
+                sources.add(source);
+                compileLinks(source);
+                return true;
+            } finally {
+                linkLock.unlock();
+            }
+        }
+
+        private boolean remove(PVRecord source,PVRecord target) {
+            linkLock.lock();
+            try {
+                if(!unlink(source,target)) return false;
+                compileLinks(source);
+                return true;
+            } finally {
+                linkLock.unlock();
+            }
+        }
+
+        private PVRecord[] get(PVRecord source) {
+            linkLock.lock();
+            try {
+                LinkedHashSet<PVRecord> targets = linkMap.get(source);
+                if(targets==null) return new PVRecord[0];
+                return targets.toArray(new PVRecord[targets.size()]);
+            } finally {
+                linkLock.unlock();
+            }
+        }
+
+        private void removeAll(Collection<PVRecord> pvRecords) {
+            if(pvRecords.isEmpty()) return;
+            linkLock.lock();
+            try {
+                for(PVRecord pvRecord : pvRecords) removeAllLocked(pvRecord);
+            } finally {
+                linkLock.unlock();
+            }
+        }
+
+        private void removeAll(PVRecord pvRecord) {
+            linkLock.lock();
+            try {
+                removeAllLocked(pvRecord);
             } finally {
-                rwLock.readLock().unlock();
+                linkLock.unlock();
+            }
+        }
+
+        // following must be called with linkLock held.
+        private void removeAllLocked(PVRecord pvRecord) {
+            LinkedHashSet<PVRecord> targets = linkMap.get(pvRecord);
+            if(targets!=null) {
+                PVRecord[] xxx = targets.toArray(new PVRecord[targets.size()]);
+                for(int i=0; i<xxx.length; i++) unlink(pvRecord,xxx[i]);
+            }
+            HashSet<PVRecord> sources = reverseLinkMap.get(pvRecord);
+            if(sources!=null) {
+                PVRecord[] xxx = sources.toArray(new PVRecord[sources.size()]);
+                for(int i=0; i<xxx.length; i++) {
+                    unlink(xxx[i],pvRecord);
+                    compileLinks(xxx[i]);
+                }
+            }
+            pvRecord.setProcessGraph(null);
+        }
+
+        private boolean unlink(PVRecord source,PVRecord target) {
+            LinkedHashSet<PVRecord> targets = linkMap.get(source);
+            if(targets==null || !targets.remove(target)) return false;
+            if(targets.isEmpty()) linkMap.remove(source);
+            HashSet<PVRecord> sources = reverseLinkMap.get(target);
+            sources.remove(source);
+            if(sources.isEmpty()) reverseLinkMap.remove(target);
+            return true;
+        }
+
+        private boolean isReachable(PVRecord from,PVRecord to) {
+            ArrayDeque<PVRecord> stack = new ArrayDeque<PVRecord>();
+            HashSet<PVRecord> visited = new HashSet<PVRecord>();
+            stack.push(from);
+            while(!stack.isEmpty()) {
+                PVRecord pvRecord = stack.pop();
+                if(pvRecord==to) return true;
+                if(!visited.add(pvRecord)) continue;
+                LinkedHashSet<PVRecord> targets = linkMap.get(pvRecord);
+                if(targets!=null) {
+                    for(PVRecord target : targets) stack.push(target);
+                }
+            }
+            return false;
+        }
+
+        // the graph of source and of every record upstream of source changes.
+        private void compileLinks(PVRecord source) {
+            ArrayDeque<PVRecord> stack = new ArrayDeque<PVRecord>();
+            HashSet<PVRecord> visited = new HashSet<PVRecord>();
+            stack.push(source);
+            while(!stack.isEmpty()) {
+                PVRecord pvRecord = stack.pop();
+                if(!visited.add(pvRecord)) continue;
+                pvRecord.setProcessGraph(ProcessGraph.compile(pvRecord,linkMap,linkPool));
+                HashSet<PVRecord> sources = reverseLinkMap.get(pvRecord);
+                if(sources!=null) {
+                    for(PVRecord xxx : sources) stack.push(xxx);
+                }
             }
         }
     }
@@ -0,0 +1,29 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+/**
+ * Callback for records being added to or removed from a PVDatabase.
+ * Each add or remove increments the version of the database by one,
+ * and events are delivered in version order.
+ * Only the record name is delivered, so the events kept for resume do not keep removed records alive.
+ * The callbacks are called with the event lock of the database held,
+ * so they must not add or remove records.
+ */
+public interface PVDatabaseListener {
+    /**
+     * A record was added.
+     * @param recordName The record name.
+     * @param version The version of the database after the add.
+     */
+    void recordAdded(String recordName,long version);
+    /**
+     * A record was removed.
+     * @param recordName The record name.
+     * @param version The version of the database after the remove.
+     */
+    void recordRemoved(String recordName,long version);
+}
@@ -5,12 +5,19 @@
  */
 package org.epics.pvdatabase;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.epics.pvaccess.server.rpc.Service;
 import org.epics.pvdata.copy.PVCopy;
 import org.epics.pvdata.copy.PVCopyTraverseMasterCallback;
 import org.epics.pvdata.factory.ConvertFactory;
+import org.epics.pvdata.misc.BitSet;
 import org.epics.pvdata.misc.LinkedList;
 import org.epics.pvdata.misc.LinkedListCreate;
 import org.epics.pvdata.misc.LinkedListNode;
@@ -33,22 +40,53 @@ import org.epics.pvdata.pv.Type;
  */
 public class PVRecord implements PVCopyTraverseMasterCallback {
     private static final Convert convert = ConvertFactory.getConvert();
-    private static LinkedListCreate<PVListener> listenerListCreate = new LinkedListCreate<PVListener>();
+    private static final PVListener[] emptyListeners = new PVListener[0];
+    private static final CompletableFuture<Void> processComplete = CompletableFuture.completedFuture(null);
     private static LinkedListCreate<PVRecordClient> clientListCreate = new LinkedListCreate<PVRecordClient>();
     private String recordName;
     private PVStructure pvStructure;
     private BasePVRecordStructure pvRecordStructure = null;
-    private LinkedList<PVListener> pvAllListenerList = listenerListCreate.create();
-    private LinkedList<PVRecordClient> clientList = clientListCreate.create();
-    private ReentrantLock lock = new ReentrantLock();
+    // indexed by field offset
+    private PVRecordField[] pvRecordFields = null;
+    // copy on write: replaced, never modified, by addListener and removeListener.
+    private volatile PVListener[] pvAllListeners = emptyListeners;
+    // the PVBitSetListeners. They are also in pvAllListeners.
+    private volatile PVListener[] bitSetListeners = emptyListeners;
+    // offsets posted since beginGroupPut. Only allocated when a PVBitSetListener is added.
+    private BitSet changedBitSet = null;
+    // allocated by the first addPVRecordClient. Guarded by lock.
+    private LinkedList<PVRecordClient> clientList = null;
+    // null unless the record was created from a template.
+    private final RecordTemplate template;
+    private ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+    // lock is the exclusive lock. It is used by everything except lockShared.
+    private ReentrantReadWriteLock.WriteLock lock = rwLock.writeLock();
+    private final boolean sharedLock;
     private int depthGroupPut = 0;
     private int traceLevel = 0;
-    private static volatile int numberRecords = 0;
-    private int id = numberRecords++;
+    private boolean traceBuffer = false;
+    private volatile RecordStatistics statistics = null;
+    // records downstream via forward links. Set by the database.
+    private volatile ProcessGraph processGraph = null;
+    // the future of an invokeProcess whose forward links run at the outermost unlock. Guarded by lock.
+    private CompletableFuture<Void> forwardProcess = null;
+    // time of the outermost lock. Only accessed by the lock holder.
+    private long lockTime = 0;
+    private static final AtomicInteger numberRecords = new AtomicInteger(0);
+    // lock order: records are always locked in increasing id.
+    private final int id = numberRecords.getAndIncrement();
+    private final AtomicLong lockReorderCount = new AtomicLong(0);
+    private static final Comparator<PVRecord> idComparator = new Comparator<PVRecord>() {
+        public int compare(PVRecord a,PVRecord b) {
+            return (a.id<b.id) ? -1 : ((a.id==b.id) ? 0 : 1);
+        }
+    };
 
     private PVTimeStamp pvTimeStamp = PVTimeStampFactory.create();
     private TimeStamp timeStamp = TimeStampFactory.create();
     private boolean isDestroyed = false;
+    // the database the record was added to.
+    private volatile PVDatabase pvDatabase = null;
     // following only valid while addListener or removeListener is active.
     private boolean isAddListener = false;
     private PVListener pvListener = null;
@@ -61,11 +99,48 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
      * @param pvStructure The top level structure.
      */
     public PVRecord(String recordName,PVStructure pvStructure) {
+        this(recordName,pvStructure,false);
+    }
+    /**
+     * Create a PVRecord that has pvStructure as it's top level structure.
+     * A derived class must call super(recordName, pvStructure, sharedLock).
+     * @param recordName The record name.
+     * @param pvStructure The top level structure.
+     * @param sharedLock If true then lockShared allows concurrent readers.
+     * If false then lockShared is the same as lock.
+     */
+    public PVRecord(String recordName,PVStructure pvStructure,boolean sharedLock) {
+        this(recordName,pvStructure,sharedLock,null);
+    }
+    /**
+     * Create a PVRecord with data created from a template.
+     * The record shares the structure and the field names of the template.
+     * A derived class must call super(recordName, template).
+     * @param recordName The record name.
+     * @param template The template.
+     */
+    public PVRecord(String recordName,RecordTemplate template) {
+        this(recordName,template,false);
+    }
+    /**
+     * Create a PVRecord with data created from a template.
+     * A derived class must call super(recordName, template, sharedLock).
+     * @param recordName The record name.
+     * @param template The template.
+     * @param sharedLock If true then lockShared allows concurrent readers.
+     */
+    public PVRecord(String recordName,RecordTemplate template,boolean sharedLock) {
+        this(recordName,template.createPVStructure(),sharedLock,template);
+    }
+    private PVRecord(String recordName,PVStructure pvStructure,boolean sharedLock,RecordTemplate template) {
         if(pvStructure.getParent()!=null) {
             throw new IllegalStateException(recordName + " pvStructure not a top level structure");
         }
         this.recordName = recordName;
+        this.sharedLock = sharedLock;
+        this.template = template;
         this.pvStructure = pvStructure;
+        pvRecordFields = new PVRecordField[pvStructure.getNumberFields()];
         pvRecordStructure = new BasePVRecordStructure(pvStructure,null,this);
         PVField pvField = pvStructure.getSubField("timeStamp");
         if(pvField!=null) pvTimeStamp.attach(pvField);
@@ -78,7 +153,7 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
      */
     public void destroy()
     {
-        if(traceLevel>0) {
+        if(trace(1,TraceBuffer.DESTROY)) {
             System.out.println("PVRecord::destroy() " + recordName);
         }
         lock.lock();
@@ -89,15 +164,23 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
             lock.unlock();
         }
         pvTimeStamp.detach();
-        PVDatabase pvDatabase = PVDatabaseFactory.getMaster();
+        PVDatabase pvDatabase = this.pvDatabase;
         if(pvDatabase!=null) pvDatabase.removeRecord(this);
-        while(true) {
-            LinkedListNode<PVListener> listNode = pvAllListenerList.removeHead();
-            if(listNode==null) break;
-            PVListener listener = listNode.getObject();
-            listener.unlisten(this);
+        PVListener[] listeners;
+        lock.lock();
+        try {
+            listeners = pvAllListeners;
+            pvAllListeners = emptyListeners;
+            bitSetListeners = emptyListeners;
+        } finally {
+            lock.unlock();
+        }
+        for(int i=0; i<listeners.length; i++) {
+            listeners[i].unlisten(this);
         }
-        while(true) {
+        // no client can be added after isDestroyed is set.
+        LinkedList<PVRecordClient> clientList = this.clientList;
+        while(clientList!=null) {
             LinkedListNode<PVRecordClient> listNode = clientList.removeHead();
             if(listNode==null) break;
             PVRecordClient pvRecordClient = listNode.getObject();
@@ -112,7 +195,7 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
      */
     public void process()
     {
-        if(traceLevel>2) {
+        if(trace(3,TraceBuffer.PROCESS)) {
             System.out.println("PVRecord::process() " + recordName);
         }
         if(pvTimeStamp.isAttached()) {
@@ -121,6 +204,116 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
             pvTimeStamp.set(timeStamp);
         }
     }
+    /**
+     * Process the record, possibly asynchronously.
+     * This is called like process, i.e. with the record locked and between beginGroupPut and endGroupPut.
+     * The default calls process and returns a future that is already complete.
+     * A record that must wait, e.g. for device I/O, overrides this method.
+     * It starts the work and returns a future that is not yet complete, without waiting.
+     * When the work is done it must lock the record, call beginGroupPut, put the results,
+     * call endGroupPut, unlock the record, and then complete the future,
+     * or complete it exceptionally if the work failed.
+     * The record decides what to do if processAsync is called again before the future is complete.
+     * @return The future that completes when processing is done.
+     */
+    public CompletableFuture<Void> processAsync()
+    {
+        process();
+        return processComplete;
+    }
+    /**
+     * Call processAsync.
+     * Code that processes a record, e.g. the local channel provider, calls this instead of process,
+     * so that the time spent in processAsync is included in the record statistics.
+     * The time an asynchronous record spends after processAsync returns is not included.
+     * If the record has forward links, see PVDatabase.addLink,
+     * the downstream records are processed after the future completes
+     * and the record has been unlocked outside beginGroupPut and endGroupPut.
+     * The record must be locked.
+     * @return The future returned by processAsync.
+     */
+    public final CompletableFuture<Void> invokeProcess()
+    {
+        return invokeProcess(true);
+    }
+
+    final CompletableFuture<Void> invokeProcess(boolean forward)
+    {
+        CompletableFuture<Void> done;
+        RecordStatistics stats = statistics;
+        if(stats==null) {
+            done = processAsync();
+        } else {
+            long start = System.nanoTime();
+            try {
+                done = processAsync();
+            } finally {
+                stats.getProcess().add(System.nanoTime()-start);
+            }
+        }
+        // the downstream records are processed after unlock, see unlock.
+        if(forward && processGraph!=null) forwardProcess = done;
+        return done;
+    }
+
+    final void setProcessGraph(ProcessGraph processGraph)
+    {
+        this.processGraph = processGraph;
+    }
+    /**
+     * Get the database that holds the record.
+     * @return The database or null if the record has not been added to a database.
+     */
+    public final PVDatabase getPVDatabase() {
+        return pvDatabase;
+    }
+    // following are called by the database. A record can only be in one database.
+    final boolean attachDatabase(PVDatabase pvDatabase) {
+        lock.lock();
+        try {
+            if(isDestroyed || this.pvDatabase!=null) return false;
+            this.pvDatabase = pvDatabase;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    final void detachDatabase(PVDatabase pvDatabase) {
+        lock.lock();
+        try {
+            if(this.pvDatabase==pvDatabase) this.pvDatabase = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+    // true if no client or listener uses the record. Called with the record locked.
+    final boolean isIdle() {
+        return (clientList==null || clientList.isEmpty()) && pvAllListeners.length==0;
+    }
+    // following are used by MemoryEstimator. Called with the record locked.
+    final PVListener[] getListeners() {
+        return pvAllListeners;
+    }
+    final PVRecordClient[] getClients() {
+        if(clientList==null) return new PVRecordClient[0];
+        PVRecordClient[] clients = new PVRecordClient[clientList.getLength()];
+        LinkedListNode<PVRecordClient> node = clientList.getHead();
+        for(int i=0; node!=null && i<clients.length; i++) {
+            clients[i] = node.getObject();
+            node = clientList.getNext(node);
+        }
+        return clients;
+    }
+    final int getNumberFieldListeners(int offset) {
+        return ((BasePVRecordField)pvRecordFields[offset]).pvListeners.length;
+    }
+    /**
+     * Get the template the record was created from.
+     * @return The template or null if the record was not created from a template.
+     */
+    public final RecordTemplate getTemplate() {
+        return template;
+    }
     /**
      * Get the record instance name.
      * @return The name.
@@ -149,23 +342,10 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
      * @return The PVRecordField interface or null is not in record.
      */
     public final PVRecordField findPVRecordField(PVField pvField) {
-        return findPVRecordField(pvRecordStructure,pvField);
-    }
-
-    private PVRecordField findPVRecordField(PVRecordStructure pvrs,PVField pvField) {
-        int desiredOffset = pvField.getFieldOffset();
-        PVField pvf = pvrs.getPVField();
-        int offset = pvf.getFieldOffset();
-        if(offset==desiredOffset) return pvrs;
-        PVRecordField[] pvrss = pvrs.getPVRecordFields();
-        for(int i=0; i<pvrss.length; i++) {
-            PVRecordField pvrf = pvrss[i];
-            pvf = pvrf.getPVField();
-            offset = pvf.getFieldOffset();
-            if(offset==desiredOffset) return pvrf;
-            int nextOffset = pvf.getNextFieldOffset();
-            if(nextOffset<=desiredOffset) continue;
-            return findPVRecordField((PVRecordStructure)pvrf,pvField);
+        int offset = pvField.getFieldOffset();
+        if(offset>=0 && offset<pvRecordFields.length) {
+            PVRecordField pvRecordField = pvRecordFields[offset];
+            if(pvRecordField!=null) return pvRecordField;
         }
         throw new IllegalStateException(recordName + " pvField " + pvField.getFieldName() + " not in PVRecord");
     }
@@ -174,19 +354,85 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
      * This must be called before accessing the record.
      */
     public final void lock() {
-        if(traceLevel>2) {
+        if(trace(3,TraceBuffer.LOCK)) {
             System.out.println("PVRecord::lock() " + recordName);
         }
+        RecordStatistics stats = statistics;
+        if(stats==null) {
+            lock.lock();
+            return;
+        }
+        long start = System.nanoTime();
         lock.lock();
+        locked(stats,start);
+    }
+
+    // record the wait and start the hold time of the outermost lock.
+    private void locked(RecordStatistics stats,long start) {
+        if(stats==null || lock.getHoldCount()!=1) return;
+        long now = System.nanoTime();
+        stats.getLockWait().add(now-start);
+        lockTime = now;
     }
     /**
      * Unlock the record.
      */
     public final void unlock() {
-        if(traceLevel>2) {
+        if(trace(3,TraceBuffer.UNLOCK)) {
             System.out.println("PVRecord::unlock() " + recordName);
         }
+        RecordStatistics stats = statistics;
+        if(stats!=null && lockTime!=0 && lock.getHoldCount()==1) {
+            stats.getLockHold().add(System.nanoTime()-lockTime);
+            lockTime = 0;
+        }
+        CompletableFuture<Void> done = null;
+        if(forwardProcess!=null && depthGroupPut==0 && lock.getHoldCount()==1) {
+            done = forwardProcess;
+            forwardProcess = null;
+        }
         lock.unlock();
+        if(done==null) return;
+        ProcessGraph graph = processGraph;
+        if(graph!=null) graph.trigger(done);
+    }
+    /**
+     * Lock the record instance for code that only reads the record.
+     * If the record was created with sharedLock true then readers do not block each other,
+     * but they do block, and are blocked by, holders of lock.
+     * Otherwise this is the same as lock.
+     * A holder of lockShared must not modify the record, call process,
+     * or call lock.
+     */
+    public final void lockShared() {
+        if(trace(3,TraceBuffer.LOCK_SHARED)) {
+            System.out.println("PVRecord::lockShared() " + recordName);
+        }
+        if(sharedLock) {
+            rwLock.readLock().lock();
+        } else {
+            lock.lock();
+        }
+    }
+    /**
+     * Unlock after lockShared.
+     */
+    public final void unlockShared() {
+        if(trace(3,TraceBuffer.UNLOCK_SHARED)) {
+            System.out.println("PVRecord::unlockShared() " + recordName);
+        }
+        if(sharedLock) {
+            rwLock.readLock().unlock();
+        } else {
+            lock.unlock();
+        }
+    }
+    /**
+     * Does lockShared allow concurrent readers?
+     * @return (false,true) means lockShared is (exclusive,shared)
+     */
+    public final boolean isSharedLock() {
+        return sharedLock;
     }
     /**
      * Try to lock the record instance.
@@ -194,10 +440,25 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
      * @return If true then it is just like lock. If false the record must not be accessed.
      */
     public final boolean tryLock() {
-        if(traceLevel>2) {
+        if(trace(3,TraceBuffer.TRY_LOCK)) {
             System.out.println("PVRecord::tryLock() " + recordName);
         }
-        return lock.tryLock();
+        RecordStatistics stats = statistics;
+        long start = (stats==null) ? 0 : System.nanoTime();
+        if(!lock.tryLock()) return false;
+        locked(stats,start);
+        return true;
+    }
+
+    private boolean tryLock(long timeout) throws InterruptedException {
+        if(trace(3,TraceBuffer.TRY_LOCK)) {
+            System.out.println("PVRecord::tryLock(timeout) " + recordName);
+        }
+        RecordStatistics stats = statistics;
+        long start = (stats==null) ? 0 : System.nanoTime();
+        if(!lock.tryLock(timeout,TimeUnit.NANOSECONDS)) return false;
+        locked(stats,start);
+        return true;
     }
     /**
      * While holding lock on this record lock another record.
@@ -206,7 +467,7 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
      * @param otherRecord the other record.
      */
     public final void lockOtherRecord(PVRecord otherRecord) {
-        if(traceLevel>2) {
+        if(trace(3,TraceBuffer.LOCK_OTHER_RECORD)) {
             System.out.println("PVRecord::lockOtherRecord() " + recordName);
         }
         PVRecord impl = (PVRecord)otherRecord;
@@ -216,9 +477,111 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
             return;
         }
         int count = lock.getHoldCount();
-        for(int i=0; i<count; i++) lock.unlock();
+        if(count>0) lockReorderCount.incrementAndGet();
+        for(int i=0; i<count; i++) unlock();
         otherRecord.lock();
-        for(int i=0; i<count; i++) lock.lock();
+        for(int i=0; i<count; i++) lock();
+    }
+    /**
+     * While holding lock on this record lock other records.
+     * All records are locked in a global order so this can not deadlock with
+     * other callers of lockOtherRecord, lockOtherRecords, or lockAll.
+     * If any other record precedes this record in the global order
+     * than this record is unlocked and locked again.
+     * The caller must call unlockAll(otherRecords) when done with them.
+     * @param otherRecords The other records. Duplicates and this record are ignored.
+     */
+    public final void lockOtherRecords(PVRecord... otherRecords) {
+        if(trace(3,TraceBuffer.LOCK_OTHER_RECORD)) {
+            System.out.println("PVRecord::lockOtherRecords() " + recordName);
+        }
+        PVRecord[] records = lockOrder(otherRecords,this);
+        if(records.length==0) return;
+        int count = lock.getHoldCount();
+        if(count==0 || id<records[0].id) {
+            for(int i=0; i<records.length; i++) records[i].lock();
+            return;
+        }
+        lockReorderCount.incrementAndGet();
+        for(int i=0; i<count; i++) unlock();
+        boolean lockedThis = false;
+        for(int i=0; i<records.length; i++) {
+            if(!lockedThis && id<records[i].id) {
+                lock();
+                lockedThis = true;
+            }
+            records[i].lock();
+        }
+        if(!lockedThis) lock();
+        for(int i=1; i<count; i++) lock();
+    }
+    /**
+     * Get the number of times lockOtherRecord or lockOtherRecords had to
+     * unlock this record in order to lock other records in the global order.
+     * @return The count.
+     */
+    public final long getLockReorderCount() {
+        return lockReorderCount.get();
+    }
+    /**
+     * Lock a set of records in the global lock order.
+     * The caller must not hold the lock of any record in the set.
+     * The caller must call unlockAll when done.
+     * @param records The records. Duplicates are ignored.
+     */
+    public static void lockAll(PVRecord... records) {
+        PVRecord[] ordered = lockOrder(records,null);
+        for(int i=0; i<ordered.length; i++) ordered[i].lock();
+    }
+    /**
+     * Lock a set of records in the global lock order, giving up after a timeout.
+     * If false is returned no record in the set is locked by this call.
+     * @param timeout The maximum time to wait for all the locks.
+     * @param unit The time unit of timeout.
+     * @param records The records. Duplicates are ignored.
+     * @return (false,true) means (timed out, all records are locked).
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public static boolean tryLockAll(long timeout,TimeUnit unit,PVRecord... records)
+    throws InterruptedException
+    {
+        PVRecord[] ordered = lockOrder(records,null);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int numberLocked = 0;
+        try {
+            for(int i=0; i<ordered.length; i++) {
+                long remaining = deadline - System.nanoTime();
+                if(!ordered[i].tryLock(remaining)) break;
+                ++numberLocked;
+            }
+        } finally {
+            if(numberLocked<ordered.length) {
+                for(int i=numberLocked-1; i>=0; i--) ordered[i].unlock();
+            }
+        }
+        return numberLocked==ordered.length;
+    }
+    /**
+     * Unlock a set of records locked by lockAll, tryLockAll, or lockOtherRecords.
+     * @param records The records. Duplicates are ignored.
+     */
+    public static void unlockAll(PVRecord... records) {
+        PVRecord[] ordered = lockOrder(records,null);
+        for(int i=ordered.length-1; i>=0; i--) ordered[i].unlock();
+    }
+
+    private static PVRecord[] lockOrder(PVRecord[] records,PVRecord exclude) {
+        PVRecord[] ordered = Arrays.copyOf(records,records.length);
+        Arrays.sort(ordered,idComparator);
+        int length = 0;
+        for(int i=0; i<ordered.length; i++) {
+            PVRecord pvRecord = ordered[i];
+            if(pvRecord==exclude) continue;
+            if(length>0 && ordered[length-1]==pvRecord) continue;
+            ordered[length++] = pvRecord;
+        }
+        if(length<ordered.length) ordered = Arrays.copyOf(ordered,length);
+        return ordered;
     }
     /**
      * Register a client of the record.
@@ -227,17 +590,15 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
      *  @return (false,true) means (failure,success)
      */
     public final boolean addPVRecordClient(PVRecordClient pvRecordClient) {
-        if(traceLevel>1) {
+        if(trace(2,TraceBuffer.ADD_CLIENT)) {
             System.out.println("PVRecord::addPVRecordClient() " + recordName);
         }
         lock.lock();
         try {
             if(isDestroyed) return false;
+            if(clientList==null) clientList = clientListCreate.create();
             if(clientList.contains(pvRecordClient)) return false;
             LinkedListNode<PVRecordClient> listNode = clientListCreate.createNode(pvRecordClient);
-            if(traceLevel>1) {
-                System.out.println("PVRecord::addPVRecordClient() calling clientList.push_back(pvRecordClient)");
-            }
             clientList.addTail(listNode);
             return true;
         } finally {
@@ -251,13 +612,13 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
      *  @return (false,true) means (failure,success)
      */
     public final boolean removePVRecordClient(PVRecordClient pvRecordClient) {
-        if(traceLevel>1) {
+        if(trace(2,TraceBuffer.REMOVE_CLIENT)) {
             System.out.println("PVRecord::removePVRecordClient() " + recordName);
         }
         lock.lock();
         try {
             if(isDestroyed) return false;
-            if(!clientList.contains(pvRecordClient)) return false;
+            if(clientList==null || !clientList.contains(pvRecordClient)) return false;
             clientList.remove(pvRecordClient);
             return true;
         } finally {
@@ -266,20 +627,27 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
     }
     /**
      * Add a PVListener. This must be called before pvField.addListener.
+     * If listener is a PVBitSetListener it is not attached to any field
+     * and instead gets the offsets of all changed fields once per group put.
      * @param listener The listener.
      * @param pvCopy The pvStructure that has the client fields.
      *  @return (false,true) means (failure,success)
      */
     public final boolean addListener(PVListener listener,PVCopy pvCopy) {
-        if(traceLevel>1) {
+        if(trace(2,TraceBuffer.ADD_LISTENER)) {
             System.out.println("PVRecord::addListener() " + recordName);
         }
         lock.lock();
         try {
             if(isDestroyed) return false;
-            if(pvAllListenerList.contains(listener)) return false;
-            LinkedListNode<PVListener> listNode = listenerListCreate.createNode(listener);
-            pvAllListenerList.addTail(listNode);
+            PVListener[] listeners = copyAddListener(pvAllListeners,listener);
+            if(listeners==null) return false;
+            pvAllListeners = listeners;
+            if(listener instanceof PVBitSetListener) {
+                if(changedBitSet==null) changedBitSet = new BitSet(pvStructure.getNumberFields());
+                bitSetListeners = copyAddListener(bitSetListeners,listener);
+                return true;
+            }
             this.pvListener = listener;
             isAddListener = true;
             pvCopy.traverseMaster(this);
@@ -307,14 +675,21 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
      *  @return (false,true) means (failure,success)
      */
     public final boolean removeListener(PVListener listener,PVCopy pvCopy) {
-        if(traceLevel>1) {
+        if(trace(2,TraceBuffer.REMOVE_LISTENER)) {
             System.out.println("PVRecord::removeListener() " + recordName);
         }
         lock.lock();
         try {
             if(isDestroyed) return false;
-            if(!pvAllListenerList.contains(listener)) return false;
-            pvAllListenerList.remove(listener);
+            PVListener[] listeners = copyRemoveListener(pvAllListeners,listener);
+            if(listeners==null) return false;
+            pvAllListeners = listeners;
+            if(listener instanceof PVBitSetListener) {
+                bitSetListeners = copyRemoveListener(bitSetListeners,listener);
+                // offsets posted during a group put would otherwise stay set until the next listener.
+                if(bitSetListeners.length==0) changedBitSet.clear();
+                return true;
+            }
             this.pvListener = listener;
             isAddListener = false;
             pvCopy.traverseMaster(this);
@@ -338,32 +713,35 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
      */
     public final void beginGroupPut() {
         if(++depthGroupPut>1) return;
-        if(traceLevel>2) {
+        if(trace(3,TraceBuffer.BEGIN_GROUP_PUT)) {
             System.out.println("PVRecord::beginGroupPut() " + recordName);
         }
         // no need to synchronize because record must be locked when this is called.
-        LinkedListNode<PVListener> listNode = pvAllListenerList.getHead();
-        while(listNode!=null) {
-            PVListener pvListener = listNode.getObject();
-            pvListener.beginGroupPut(this);
-            listNode = pvAllListenerList.getNext(listNode);
+        RecordStatistics stats = statistics;
+        long start = (stats==null) ? 0 : System.nanoTime();
+        PVListener[] listeners = pvAllListeners;
+        for(int i=0; i<listeners.length; i++) {
+            listeners[i].beginGroupPut(this);
         }
+        if(stats!=null) stats.getDispatch().add(System.nanoTime()-start);
     }
     /**
      * End of a group of related puts.
      */
     public final void endGroupPut() {
         if(--depthGroupPut>0) return;
-        if(traceLevel>2) {
+        if(trace(3,TraceBuffer.END_GROUP_PUT)) {
             System.out.println("PVRecord::endGroupPut() " + recordName);
         }
         // no need to synchronize because record must be locked when this is called.
-        LinkedListNode<PVListener> listNode = pvAllListenerList.getHead();
-        while(listNode!=null) {
-            PVListener pvListener = listNode.getObject();
-            pvListener.endGroupPut(this);
-            listNode = pvAllListenerList.getNext(listNode);
+        RecordStatistics stats = statistics;
+        long start = (stats==null) ? 0 : System.nanoTime();
+        postBitSet();
+        PVListener[] listeners = pvAllListeners;
+        for(int i=0; i<listeners.length; i++) {
+            listeners[i].endGroupPut(this);
         }
+        if(stats!=null) stats.getDispatch().add(System.nanoTime()-start);
     }
     /**
      * Get trace level: (0,1,2) means (nothing,lifetime,process)
@@ -375,6 +753,60 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
      * @param level The level
      */
     public final void setTraceLevel(int level) { traceLevel = level;}
+    /**
+     * Is trace output recorded in TraceBuffer instead of printed?
+     * @return (false,true) means trace output is (printed,recorded in TraceBuffer)
+     */
+    public final boolean isTraceBuffer(){ return traceBuffer;}
+    /**
+     * Record trace output in TraceBuffer instead of printing it.
+     * @param buffer (false,true) means trace output is (printed,recorded in TraceBuffer)
+     */
+    public final void setTraceBuffer(boolean buffer) { traceBuffer = buffer;}
+    /**
+     * Trace an event.
+     * If the trace level is less than level then nothing is done.
+     * If isTraceBuffer is true the event is recorded in TraceBuffer.
+     * @param level The trace level at which the event is traced.
+     * @param event The TraceBuffer event code.
+     * @return true if the caller must print the trace message.
+     */
+    public final boolean trace(int level,int event) {
+        if(traceLevel<level) return false;
+        if(!traceBuffer) return true;
+        TraceBuffer.record(event,id);
+        return false;
+    }
+    /**
+     * Enable or disable performance statistics.
+     * Enabling always starts with cleared statistics.
+     * @param enable (false,true) means statistics are (disabled,enabled)
+     */
+    public final void setStatisticsEnabled(boolean enable) {
+        lock.lock();
+        try {
+            if(enable) {
+                if(statistics==null) statistics = new RecordStatistics();
+            } else {
+                statistics = null;
+            }
+            lockTime = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+    /**
+     * Get the performance statistics.
+     * See RecordStatistics for how to read them.
+     * @return The statistics or null if they are not enabled.
+     */
+    public final RecordStatistics getStatistics() { return statistics;}
+    /**
+     * Get the record id.
+     * The id is unique within the process and defines the order in which records are locked.
+     * @return The id.
+     */
+    public final int getId() { return id;}
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
@@ -410,13 +842,51 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
         return (obj instanceof PVRecord && ((PVRecord)obj).id == id);
     }
 
+    // give the offsets posted since beginGroupPut to the PVBitSetListeners.
+    private void postBitSet() {
+        PVListener[] listeners = bitSetListeners;
+        if(listeners.length==0 || changedBitSet.nextSetBit(0)<0) return;
+        for(int i=0; i<listeners.length; i++) {
+            ((PVBitSetListener)listeners[i]).dataPut(this,changedBitSet);
+        }
+        changedBitSet.clear();
+    }
+
+    /*
+     * Listener arrays are copy on write.
+     * The following return a new array or null if the array would not change.
+     * The caller must hold the record lock.
+     */
+    private static PVListener[] copyAddListener(PVListener[] listeners,PVListener listener) {
+        int length = listeners.length;
+        for(int i=0; i<length; i++) {
+            if(listeners[i]==listener) return null;
+        }
+        PVListener[] newListeners = new PVListener[length+1];
+        System.arraycopy(listeners,0,newListeners,0,length);
+        newListeners[length] = listener;
+        return newListeners;
+    }
+
+    private static PVListener[] copyRemoveListener(PVListener[] listeners,PVListener listener) {
+        int length = listeners.length;
+        for(int i=0; i<length; i++) {
+            if(listeners[i]!=listener) continue;
+            if(length==1) return emptyListeners;
+            PVListener[] newListeners = new PVListener[length-1];
+            System.arraycopy(listeners,0,newListeners,0,i);
+            System.arraycopy(listeners,i+1,newListeners,i,length-i-1);
+            return newListeners;
+        }
+        return null;
+    }
+
     private static class BasePVRecordField implements PVRecordField, PostHandler{
-        private LinkedListCreate<PVListener> linkedListCreate = new LinkedListCreate<PVListener>();
         private PVField pvField = null;
         private PVRecord pvRecord = null;
         private PVRecordStructure parent = null;
         private boolean isStructure = false;
-        private LinkedList<PVListener> pvListenerList = linkedListCreate.create();
+        private volatile PVListener[] pvListeners = emptyListeners;
         private String fullName = null;
         private String fullFieldName = null;
 
@@ -426,6 +896,7 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
             this.pvRecord = pvRecord;
             if(pvField.getField().getType()==Type.structure) isStructure = true;
             pvField.setPostHandler(this);
+            pvRecord.pvRecordFields[pvField.getFieldOffset()] = this;
         }
 
         public PVRecordStructure getParent() {
@@ -435,7 +906,12 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
             return pvField;
         }
         public String getFullFieldName() {
-            if(fullFieldName==null) createNames();
+            if(fullFieldName==null) {
+                // the template has the name. Do not keep a copy per record.
+                RecordTemplate template = pvRecord.template;
+                if(template!=null) return template.getFieldName(pvField.getFieldOffset());
+                createNames();
+            }
             return fullFieldName;
         }
         public String getFullName() {
@@ -447,18 +923,31 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
         }
 
         public void postPut() {
-            if(parent!=null) {
-                BasePVRecordField pvf = (BasePVRecordField)parent;
-                pvf.postParent(this);
+            RecordStatistics stats = pvRecord.statistics;
+            long start = (stats==null) ? 0 : System.nanoTime();
+            PVRecord pvRecord = this.pvRecord;
+            int numberBitSetListeners = pvRecord.bitSetListeners.length;
+            if(numberBitSetListeners>0) {
+                pvRecord.changedBitSet.set(pvField.getFieldOffset());
+                if(pvRecord.depthGroupPut==0) pvRecord.postBitSet();
+            }
+            // only walk the fields if some listener is attached to fields.
+            if(pvRecord.pvAllListeners.length>numberBitSetListeners) {
+                if(parent!=null) {
+                    BasePVRecordField pvf = (BasePVRecordField)parent;
+                    pvf.postParent(this);
+                }
+                postSubField();
+            }
+            if(stats!=null) {
+                stats.addPut();
+                stats.getDispatch().add(System.nanoTime()-start);
             }
-            postSubField();
         }
         private void postParent(PVRecordField subField) {
-            LinkedListNode<PVListener> listNode = pvListenerList.getHead();
-            while(listNode!=null) {
-                PVListener pvListener = listNode.getObject();
-                pvListener.dataPut((PVRecordStructure)this,subField);
-                listNode = pvListenerList.getNext(listNode);
+            PVListener[] listeners = pvListeners;
+            for(int i=0; i<listeners.length; i++) {
+                listeners[i].dataPut((PVRecordStructure)this,subField);
             }
             if(parent!=null) {
                 BasePVRecordField pv = (BasePVRecordField)parent;
@@ -479,11 +968,9 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
         }
 
         private void callListener() {
-            LinkedListNode<PVListener> listNode = pvListenerList.getHead();
-            while(listNode!=null) {
-                PVListener pvListener = listNode.getObject();
-                pvListener.dataPut(this);
-                listNode = pvListenerList.getNext(listNode);
+            PVListener[] listeners = pvListeners;
+            for(int i=0; i<listeners.length; i++) {
+                listeners[i].dataPut(this);
             }
         }
 
@@ -509,20 +996,21 @@ public class PVRecord implements PVCopyTraverseMasterCallback {
         }
 
         private boolean addListener(PVListener pvListener) {
-            if(pvRecord.getTraceLevel()>1) {
+            if(pvRecord.trace(2,TraceBuffer.FIELD_ADD_LISTENER)) {
                 System.out.println("PVRecordField::addListener() " + getFullName() );
             }
-            if(pvListenerList.contains(pvListener)) return false;
-            LinkedListNode<PVListener> listNode = linkedListCreate.createNode(pvListener);
-            pvListenerList.addTail(listNode);
+            PVListener[] listeners = PVRecord.copyAddListener(pvListeners,pvListener);
+            if(listeners==null) return false;
+            pvListeners = listeners;
             return true;
         }
         // This is only called by PVRecord, which has the record locked.
         private void removeListener(PVListener pvListener) {
-            if(pvRecord.getTraceLevel()>1) {
+            if(pvRecord.trace(2,TraceBuffer.FIELD_REMOVE_LISTENER)) {
                 System.out.println("PVRecordField::removeListener() " + getFullName() );
             }
-            pvListenerList.remove(pvListener);
+            PVListener[] listeners = PVRecord.copyRemoveListener(pvListeners,pvListener);
+            if(listeners!=null) pvListeners = listeners;
         }
     }
     private static class BasePVRecordStructure extends BasePVRecordField implements PVRecordStructure {
@@ -0,0 +1,147 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The records downstream of a record, compiled from the forward links of a PVDatabase.
+ * The records are grouped in levels in topological order.
+ * Every record in a level only depends on records in earlier levels,
+ * so the records of a level are processed in parallel.
+ * Each record is processed once per execution, no matter how many paths lead to it.
+ */
+final class ProcessGraph implements Runnable {
+    private final PVRecord[][] levels;
+    private final ForkJoinPool pool;
+
+    private ProcessGraph(PVRecord[][] levels,ForkJoinPool pool) {
+        this.levels = levels;
+        this.pool = pool;
+    }
+
+    /**
+     * Compile the graph for a source record.
+     * @param source The source.
+     * @param links The forward links. The graph must not have cycles.
+     * @param pool The pool that executes the graph.
+     * @return The graph or null if source has no downstream records.
+     */
+    static ProcessGraph compile(PVRecord source,Map<PVRecord,? extends Set<PVRecord>> links,ForkJoinPool pool) {
+        // level of a record is the length of the longest path from source.
+        HashMap<PVRecord,Integer> levelMap = new HashMap<PVRecord,Integer>();
+        ArrayList<PVRecord> order = new ArrayList<PVRecord>();
+        topologicalOrder(source,links,new HashMap<PVRecord,Boolean>(),order);
+        levelMap.put(source,0);
+        int numberLevels = 0;
+        for(int i=order.size()-1; i>=0; i--) {
+            PVRecord pvRecord = order.get(i);
+            Integer level = levelMap.get(pvRecord);
+            Set<PVRecord> targets = links.get(pvRecord);
+            if(level==null || targets==null) continue;
+            for(PVRecord target : targets) {
+                Integer targetLevel = levelMap.get(target);
+                if(targetLevel==null || targetLevel<=level) {
+                    levelMap.put(target,level+1);
+                    if(level+1>numberLevels) numberLevels = level+1;
+                }
+            }
+        }
+        if(numberLevels==0) return null;
+        ArrayList<ArrayList<PVRecord>> lists = new ArrayList<ArrayList<PVRecord>>();
+        for(int i=0; i<numberLevels; i++) lists.add(new ArrayList<PVRecord>());
+        for(Map.Entry<PVRecord,Integer> entry : levelMap.entrySet()) {
+            int level = entry.getValue();
+            if(level>0) lists.get(level-1).add(entry.getKey());
+        }
+        PVRecord[][] levels = new PVRecord[numberLevels][];
+        for(int i=0; i<numberLevels; i++) {
+            levels[i] = lists.get(i).toArray(new PVRecord[lists.get(i).size()]);
+        }
+        return new ProcessGraph(levels,pool);
+    }
+
+    // reverse postorder of a depth first search is a topological order.
+    private static void topologicalOrder(
+            PVRecord pvRecord,
+            Map<PVRecord,? extends Set<PVRecord>> links,
+            HashMap<PVRecord,Boolean> visited,
+            ArrayList<PVRecord> order)
+    {
+        if(visited.containsKey(pvRecord)) return;
+        visited.put(pvRecord,Boolean.TRUE);
+        Set<PVRecord> targets = links.get(pvRecord);
+        if(targets!=null) {
+            for(PVRecord target : targets) topologicalOrder(target,links,visited,order);
+        }
+        order.add(pvRecord);
+    }
+
+    /**
+     * Execute the graph after the source has been processed.
+     * @param done The future returned by the processAsync of the source.
+     */
+    void trigger(CompletableFuture<Void> done) {
+        if(done.isDone()) {
+            if(!done.isCompletedExceptionally()) pool.execute(this);
+            return;
+        }
+        done.thenRun(new Runnable() {
+            public void run() {
+                pool.execute(ProcessGraph.this);
+            }
+        });
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    public void run() {
+        for(int i=0; i<levels.length; i++) {
+            PVRecord[] level = levels[i];
+            if(level.length==1) {
+                process(level[0]);
+                continue;
+            }
+            ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(level.length);
+            for(int j=0; j<level.length; j++) {
+                final PVRecord pvRecord = level[j];
+                tasks.add(ForkJoinTask.adapt(new Runnable() {
+                    public void run() {
+                        process(pvRecord);
+                    }
+                }));
+            }
+            ForkJoinTask.invokeAll(tasks);
+        }
+    }
+
+    private static void process(PVRecord pvRecord) {
+        CompletableFuture<Void> done;
+        try {
+            pvRecord.lock();
+            try {
+                pvRecord.beginGroupPut();
+                try {
+                    done = pvRecord.invokeProcess(false);
+                } finally {
+                    pvRecord.endGroupPut();
+                }
+            } finally {
+                pvRecord.unlock();
+            }
+            done.join();
+        } catch (Throwable th) {
+            System.err.println("forward link " + pvRecord.getRecordName() + " " + th);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the records of a database sorted by name.
+ * The records with a common prefix are adjacent,
+ * so a prefix query only visits the records it returns.
+ * Query results are iterated lazily and are weakly consistent,
+ * i.e. they reflect some of the records added or removed while iterating.
+ */
+final class RecordNameIndex {
+    private final ConcurrentSkipListMap<String,PVRecord> nameMap = new ConcurrentSkipListMap<String,PVRecord>();
+
+    void add(PVRecord pvRecord) {
+        nameMap.put(pvRecord.getRecordName(),pvRecord);
+    }
+
+    void remove(PVRecord pvRecord) {
+        nameMap.remove(pvRecord.getRecordName(),pvRecord);
+    }
+
+    void clear() {
+        nameMap.clear();
+    }
+
+    Set<String> getNames() {
+        return Collections.unmodifiableSet(nameMap.keySet());
+    }
+
+    Iterable<PVRecord> findRecords(String prefix) {
+        return select(prefix,null);
+    }
+
+    Iterable<PVRecord> findRecordsByGlob(String glob) {
+        return select(globPrefix(glob),globPattern(glob));
+    }
+
+    Iterable<PVRecord> findRecords(Pattern pattern) {
+        return select("",pattern);
+    }
+
+    /**
+     * Convert a glob to a regular expression.
+     * '*' matches any sequence of characters and '?' matches one character.
+     * All other characters match themselves.
+     * @param glob The glob.
+     * @return The pattern.
+     */
+    private static Pattern globPattern(String glob) {
+        StringBuilder builder = new StringBuilder();
+        int start = 0;
+        for(int i=0; i<glob.length(); i++) {
+            char c = glob.charAt(i);
+            if(c!='*' && c!='?') continue;
+            if(i>start) builder.append(Pattern.quote(glob.substring(start,i)));
+            builder.append((c=='*') ? ".*" : ".");
+            start = i + 1;
+        }
+        if(start<glob.length()) builder.append(Pattern.quote(glob.substring(start)));
+        return Pattern.compile(builder.toString(),Pattern.DOTALL);
+    }
+
+    // the characters before the first wildcard.
+    private static String globPrefix(String glob) {
+        for(int i=0; i<glob.length(); i++) {
+            char c = glob.charAt(i);
+            if(c=='*' || c=='?') return glob.substring(0,i);
+        }
+        return glob;
+    }
+
+    private Iterable<PVRecord> select(final String prefix,final Pattern pattern) {
+        return new Iterable<PVRecord>() {
+            public Iterator<PVRecord> iterator() {
+                return new Select(nameMap.tailMap(prefix,true).entrySet().iterator(),prefix,pattern);
+            }
+        };
+    }
+
+    private static class Select implements Iterator<PVRecord> {
+        private final Iterator<Map.Entry<String,PVRecord>> iterator;
+        private final String prefix;
+        private final Pattern pattern;
+        private PVRecord next = null;
+        private boolean isDone = false;
+
+        private Select(Iterator<Map.Entry<String,PVRecord>> iterator,String prefix,Pattern pattern) {
+            this.iterator = iterator;
+            this.prefix = prefix;
+            this.pattern = pattern;
+        }
+
+        public boolean hasNext() {
+            while(next==null && !isDone) {
+                if(!iterator.hasNext()) {
+                    isDone = true;
+                    break;
+                }
+                Map.Entry<String,PVRecord> entry = iterator.next();
+                String name = entry.getKey();
+                if(!name.startsWith(prefix)) {
+                    // sorted, so no later name has the prefix.
+                    isDone = true;
+                    break;
+                }
+                if(pattern!=null && !pattern.matcher(name).matches()) continue;
+                next = entry.getValue();
+            }
+            return next!=null;
+        }
+
+        public PVRecord next() {
+            if(!hasNext()) throw new NoSuchElementException();
+            PVRecord pvRecord = next;
+            next = null;
+            return pvRecord;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
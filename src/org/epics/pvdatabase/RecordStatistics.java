@@ -0,0 +1,130 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+/**
+ * Performance statistics for a PVRecord.
+ * All methods that update the statistics are called by PVRecord while the record is locked,
+ * and nothing is allocated after construction.
+ * A reader that does not lock the record may see values from different updates.
+ */
+public final class RecordStatistics {
+    /**
+     * Accumulated time of a repeated operation.
+     * The histogram has NUMBER_BUCKETS buckets.
+     * Bucket 0 counts times less than 1 microsecond
+     * and bucket i counts times in [2**(i-1),2**i) microseconds.
+     * The last bucket also counts all longer times.
+     */
+    public static final class Timer {
+        public static final int NUMBER_BUCKETS = 32;
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+        private final long[] histogram = new long[NUMBER_BUCKETS];
+
+        private Timer() {}
+
+        void add(long nanos) {
+            if(nanos<0) nanos = 0;
+            ++count;
+            totalNanos += nanos;
+            if(nanos>maxNanos) maxNanos = nanos;
+            int bucket = 64 - Long.numberOfLeadingZeros(nanos/1000);
+            if(bucket>=NUMBER_BUCKETS) bucket = NUMBER_BUCKETS - 1;
+            ++histogram[bucket];
+        }
+
+        void reset() {
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+            for(int i=0; i<NUMBER_BUCKETS; i++) histogram[i] = 0;
+        }
+        /**
+         * Get the number of times.
+         * @return The count.
+         */
+        public long getCount() { return count;}
+        /**
+         * Get the sum of all times.
+         * @return The total in nanoseconds.
+         */
+        public long getTotalNanos() { return totalNanos;}
+        /**
+         * Get the longest time.
+         * @return The maximum in nanoseconds.
+         */
+        public long getMaxNanos() { return maxNanos;}
+        /**
+         * Get the average time.
+         * @return The average in nanoseconds or 0 if count is 0.
+         */
+        public double getAverageNanos() {
+            return (count==0) ? 0.0 : (double)totalNanos/count;
+        }
+        /**
+         * Copy the histogram.
+         * @param to The array to fill. It must have at least NUMBER_BUCKETS elements.
+         */
+        public void getHistogram(long[] to) {
+            System.arraycopy(histogram,0,to,0,NUMBER_BUCKETS);
+        }
+    }
+
+    private final Timer process = new Timer();
+    private final Timer lockWait = new Timer();
+    private final Timer lockHold = new Timer();
+    private final Timer dispatch = new Timer();
+    private long putCount = 0;
+    private long startNanos = System.nanoTime();
+
+    RecordStatistics() {}
+
+    void addPut() { ++putCount;}
+
+    /**
+     * Clear all statistics.
+     */
+    public void reset() {
+        process.reset();
+        lockWait.reset();
+        lockHold.reset();
+        dispatch.reset();
+        putCount = 0;
+        startNanos = System.nanoTime();
+    }
+    /**
+     * Time spent in process.
+     * @return The timer.
+     */
+    public Timer getProcess() { return process;}
+    /**
+     * Time spent waiting for lock.
+     * @return The timer.
+     */
+    public Timer getLockWait() { return lockWait;}
+    /**
+     * Time the lock was held, from the outermost lock to the matching unlock.
+     * @return The timer.
+     */
+    public Timer getLockHold() { return lockHold;}
+    /**
+     * Time spent calling PVListeners.
+     * @return The timer.
+     */
+    public Timer getDispatch() { return dispatch;}
+    /**
+     * Get the number of calls to PVRecordField.postPut.
+     * @return The count.
+     */
+    public long getPutCount() { return putCount;}
+    /**
+     * Get the time at which statistics were enabled or last reset.
+     * @return The value of System.nanoTime().
+     */
+    public long getStartNanos() { return startNanos;}
+}
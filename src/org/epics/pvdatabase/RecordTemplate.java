@@ -0,0 +1,130 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.epics.pvdata.factory.PVDataFactory;
+import org.epics.pvdata.pv.PVDataCreate;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.Structure;
+
+/**
+ * A record type from which many records are created.
+ * Templates are interned: all equal structures have the same template,
+ * so records created from templates share one Structure.
+ * The offset and the full field name of every field are computed once,
+ * and records created from a template share the field names
+ * instead of each field building its own.
+ * Templates are never released, so they are meant for a limited number of record types.
+ */
+public final class RecordTemplate {
+    private static final PVDataCreate pvDataCreate = PVDataFactory.getPVDataCreate();
+    private static final ConcurrentHashMap<Structure,RecordTemplate> templateMap = new ConcurrentHashMap<Structure,RecordTemplate>();
+    private final Structure structure;
+    // indexed by field offset. The top level structure has name "".
+    private final String[] fieldNames;
+    private final HashMap<String,Integer> offsetMap;
+
+    /**
+     * Get the template for a structure.
+     * @param structure The structure of the record data.
+     * @return The template. The same template is returned for all equal structures.
+     */
+    public static RecordTemplate get(Structure structure) {
+        RecordTemplate template = templateMap.get(structure);
+        if(template!=null) return template;
+        template = new RecordTemplate(structure);
+        RecordTemplate previous = templateMap.putIfAbsent(structure,template);
+        return (previous==null) ? template : previous;
+    }
+
+    private RecordTemplate(Structure structure) {
+        this.structure = structure;
+        PVStructure pvStructure = pvDataCreate.createPVStructure(structure);
+        int numberFields = pvStructure.getNumberFields();
+        fieldNames = new String[numberFields];
+        offsetMap = new HashMap<String,Integer>(numberFields*2);
+        fieldNames[0] = "";
+        for(int offset=1; offset<numberFields; offset++) {
+            String fieldName = pvStructure.getSubField(offset).getFullName();
+            fieldNames[offset] = fieldName;
+            offsetMap.put(fieldName,offset);
+        }
+    }
+    /**
+     * Get the interned structure.
+     * @return The structure.
+     */
+    public Structure getStructure() {
+        return structure;
+    }
+    /**
+     * Get the number of fields, including the top level structure.
+     * @return The number of fields.
+     */
+    public int getNumberFields() {
+        return fieldNames.length;
+    }
+    /**
+     * Get the offset of a field.
+     * @param fieldName The full field name, e.g. "value" or "alarm.severity".
+     * @return The offset or -1 if there is no such field.
+     */
+    public int getOffset(String fieldName) {
+        Integer offset = offsetMap.get(fieldName);
+        return (offset==null) ? -1 : offset;
+    }
+    /**
+     * Get the full field name of a field.
+     * @param offset The field offset.
+     * @return The name. It is "" for offset 0.
+     */
+    public String getFieldName(int offset) {
+        return fieldNames[offset];
+    }
+    /**
+     * Get a field of data created from the template without parsing the field name.
+     * @param pvStructure Data created from the template.
+     * @param c The interface of the field.
+     * @param fieldName The full field name.
+     * @return The field or null if there is no such field or it is not of type c.
+     */
+    public <T extends PVField> T getSubField(PVStructure pvStructure,Class<T> c,String fieldName) {
+        int offset = getOffset(fieldName);
+        if(offset<0) return null;
+        PVField pvField = pvStructure.getSubField(offset);
+        return c.isInstance(pvField) ? c.cast(pvField) : null;
+    }
+    /**
+     * Create the data for a record.
+     * @return The top level structure.
+     */
+    public PVStructure createPVStructure() {
+        return pvDataCreate.createPVStructure(structure);
+    }
+    /**
+     * Create a record.
+     * The record is not added to a database.
+     * @param recordName The record name.
+     * @return The record.
+     */
+    public PVRecord createRecord(String recordName) {
+        return new PVRecord(recordName,this);
+    }
+    /**
+     * Create many records, e.g. for PVDatabase.addRecords.
+     * @param recordNames The record names.
+     * @return The records, one per name.
+     */
+    public PVRecord[] createRecords(String[] recordNames) {
+        PVRecord[] records = new PVRecord[recordNames.length];
+        for(int i=0; i<recordNames.length; i++) records[i] = new PVRecord(recordNames[i],this);
+        return records;
+    }
+}
@@ -10,10 +10,7 @@
 package org.epics.pvdatabase;
 
 import org.epics.pvdata.factory.FieldFactory;
-import org.epics.pvdata.factory.PVDataFactory;
 import org.epics.pvdata.pv.FieldBuilder;
-import org.epics.pvdata.pv.FieldCreate;
-import org.epics.pvdata.pv.PVDataCreate;
 import org.epics.pvdata.pv.PVString;
 import org.epics.pvdata.pv.PVStructure;
 import org.epics.pvdata.pv.ScalarType;
@@ -32,12 +29,12 @@ public class RemoveRecord extends PVRecord {
     PVString pvRecordName;
     PVString pvResult;
 
-    public static PVRecord create(String recordName)
+    private static final RecordTemplate template = RecordTemplate.get(createStructure());
+
+    private static Structure createStructure()
     {
-        FieldCreate fieldCreate = FieldFactory.getFieldCreate();
-        PVDataCreate pvDataCreate = PVDataFactory.getPVDataCreate();
-        FieldBuilder fb = fieldCreate.createFieldBuilder();
-        Structure structure = 
+        FieldBuilder fb = FieldFactory.getFieldCreate().createFieldBuilder();
+        return
                 fb.addNestedStructure("argument").
                 add("recordName",ScalarType.pvString).
                 endNested().
@@ -45,16 +42,30 @@ public class RemoveRecord extends PVRecord {
                 add("status",ScalarType.pvString).
                 endNested().
                 createStructure();
-        PVRecord pvRecord = new RemoveRecord(recordName,pvDataCreate.createPVStructure(structure));
-        PVDatabase master = PVDatabaseFactory.getMaster();
-        master.addRecord(pvRecord);
+    }
+
+    public static PVRecord create(String recordName)
+    {
+        return create(recordName,PVDatabaseFactory.getMaster());
+    }
+    /**
+     * Create the record and add it to a database.
+     * @param recordName The record name.
+     * @param pvDatabase The database. Commands apply to records in this database.
+     * @return The record.
+     */
+    public static PVRecord create(String recordName,PVDatabase pvDatabase)
+    {
+        PVRecord pvRecord = new RemoveRecord(recordName,pvDatabase);
+        pvDatabase.addRecord(pvRecord);
         return pvRecord;
     }
-    private RemoveRecord(String recordName,PVStructure pvStructure) {
-        super(recordName,pvStructure);
-        pvRecordName = pvStructure.getSubField(PVString.class,"argument.recordName");
-        pvResult = pvStructure.getSubField(PVString.class,"result.status");
-        pvDatabase = PVDatabaseFactory.getMaster();
+    private RemoveRecord(String recordName,PVDatabase pvDatabase) {
+        super(recordName,template);
+        PVStructure pvStructure = getPVRecordStructure().getPVStructure();
+        pvRecordName = template.getSubField(pvStructure,PVString.class,"argument.recordName");
+        pvResult = template.getSubField(pvStructure,PVString.class,"result.status");
+        this.pvDatabase = pvDatabase;
     }
 
     public void process()
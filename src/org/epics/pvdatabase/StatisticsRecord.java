@@ -0,0 +1,240 @@
+// Copyright information and license terms for this software can be
+// found in the file LICENSE that is included with the distribution
+
+package org.epics.pvdatabase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import org.epics.pvdata.factory.FieldFactory;
+import org.epics.pvdata.pv.FieldBuilder;
+import org.epics.pvdata.pv.PVDoubleArray;
+import org.epics.pvdata.pv.PVInt;
+import org.epics.pvdata.pv.PVLongArray;
+import org.epics.pvdata.pv.PVString;
+import org.epics.pvdata.pv.PVStringArray;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.Structure;
+
+/**
+ * Publish the performance statistics of other records in the same database.
+ * It is meant to be used via a channelPutGet request.
+ * The argument has three fields: recordName, command, and topN.
+ * command is one of get, enable, disable, or reset. An empty command means get.
+ * If recordName is empty the command applies to every record and get returns
+ * the topN records that spent the most time in process.
+ * The result has a field named status and an array field for each statistic,
+ * with one element per record. Times are in microseconds.
+ * processHistogram is only filled when recordName is not empty. See RecordStatistics.Timer.
+ */
+public class StatisticsRecord extends PVRecord {
+    PVDatabase pvDatabase;
+    PVString pvRecordName;
+    PVString pvCommand;
+    PVInt pvTopN;
+    PVString pvResult;
+    PVStringArray pvNames;
+    PVLongArray pvProcessCount;
+    PVDoubleArray pvProcessAverage;
+    PVDoubleArray pvProcessMax;
+    PVDoubleArray pvLockWaitAverage;
+    PVDoubleArray pvLockWaitMax;
+    PVDoubleArray pvLockHoldAverage;
+    PVDoubleArray pvLockHoldMax;
+    PVDoubleArray pvDispatchAverage;
+    PVDoubleArray pvPutRate;
+    PVLongArray pvProcessHistogram;
+    // recordName to {putCount,time} of the previous get
+    private HashMap<String,long[]> previousPuts = new HashMap<String,long[]>();
+
+    private static final RecordTemplate template = RecordTemplate.get(createStructure());
+
+    private static Structure createStructure()
+    {
+        FieldBuilder fb = FieldFactory.getFieldCreate().createFieldBuilder();
+        return
+                fb.addNestedStructure("argument").
+                add("recordName",ScalarType.pvString).
+                add("command",ScalarType.pvString).
+                add("topN",ScalarType.pvInt).
+                endNested().
+                addNestedStructure("result").
+                add("status",ScalarType.pvString).
+                addArray("recordName",ScalarType.pvString).
+                addArray("processCount",ScalarType.pvLong).
+                addArray("processAverage",ScalarType.pvDouble).
+                addArray("processMax",ScalarType.pvDouble).
+                addArray("lockWaitAverage",ScalarType.pvDouble).
+                addArray("lockWaitMax",ScalarType.pvDouble).
+                addArray("lockHoldAverage",ScalarType.pvDouble).
+                addArray("lockHoldMax",ScalarType.pvDouble).
+                addArray("dispatchAverage",ScalarType.pvDouble).
+                addArray("putRate",ScalarType.pvDouble).
+                addArray("processHistogram",ScalarType.pvLong).
+                endNested().
+                createStructure();
+    }
+
+    public static PVRecord create(String recordName)
+    {
+        return create(recordName,PVDatabaseFactory.getMaster());
+    }
+    /**
+     * Create the record and add it to a database.
+     * @param recordName The record name.
+     * @param pvDatabase The database. Commands apply to records in this database.
+     * @return The record.
+     */
+    public static PVRecord create(String recordName,PVDatabase pvDatabase)
+    {
+        PVRecord pvRecord = new StatisticsRecord(recordName,pvDatabase);
+        pvDatabase.addRecord(pvRecord);
+        return pvRecord;
+    }
+    private StatisticsRecord(String recordName,PVDatabase pvDatabase) {
+        super(recordName,template);
+        PVStructure pvStructure = getPVRecordStructure().getPVStructure();
+        pvRecordName = template.getSubField(pvStructure,PVString.class,"argument.recordName");
+        pvCommand = template.getSubField(pvStructure,PVString.class,"argument.command");
+        pvTopN = template.getSubField(pvStructure,PVInt.class,"argument.topN");
+        pvResult = template.getSubField(pvStructure,PVString.class,"result.status");
+        pvNames = template.getSubField(pvStructure,PVStringArray.class,"result.recordName");
+        pvProcessCount = template.getSubField(pvStructure,PVLongArray.class,"result.processCount");
+        pvProcessAverage = template.getSubField(pvStructure,PVDoubleArray.class,"result.processAverage");
+        pvProcessMax = template.getSubField(pvStructure,PVDoubleArray.class,"result.processMax");
+        pvLockWaitAverage = template.getSubField(pvStructure,PVDoubleArray.class,"result.lockWaitAverage");
+        pvLockWaitMax = template.getSubField(pvStructure,PVDoubleArray.class,"result.lockWaitMax");
+        pvLockHoldAverage = template.getSubField(pvStructure,PVDoubleArray.class,"result.lockHoldAverage");
+        pvLockHoldMax = template.getSubField(pvStructure,PVDoubleArray.class,"result.lockHoldMax");
+        pvDispatchAverage = template.getSubField(pvStructure,PVDoubleArray.class,"result.dispatchAverage");
+        pvPutRate = template.getSubField(pvStructure,PVDoubleArray.class,"result.putRate");
+        pvProcessHistogram = template.getSubField(pvStructure,PVLongArray.class,"result.processHistogram");
+        this.pvDatabase = pvDatabase;
+    }
+
+    public void process()
+    {
+        String name = pvRecordName.get();
+        String command = pvCommand.get();
+        ArrayList<PVRecord> records = new ArrayList<PVRecord>();
+        if(name.length()>0) {
+            PVRecord pvRecord = pvDatabase.findRecord(name);
+            if(pvRecord==null) {
+                pvResult.put(name + " not found");
+                return;
+            }
+            records.add(pvRecord);
+        } else {
+            String[] names = pvDatabase.getRecordNames();
+            for(int i=0; i<names.length; i++) {
+                PVRecord pvRecord = pvDatabase.findRecord(names[i]);
+                if(pvRecord!=null) records.add(pvRecord);
+            }
+        }
+        if(command.equals("enable") || command.equals("disable")) {
+            boolean enable = command.equals("enable");
+            for(PVRecord pvRecord : records) {
+                // setStatisticsEnabled locks the record, so lock it in the global order first.
+                lockOtherRecord(pvRecord);
+                try {
+                    pvRecord.setStatisticsEnabled(enable);
+                } finally {
+                    pvRecord.unlock();
+                }
+            }
+        } else if(command.equals("reset")) {
+            for(PVRecord pvRecord : records) {
+                RecordStatistics statistics = pvRecord.getStatistics();
+                if(statistics==null) continue;
+                lockOtherRecord(pvRecord);
+                try {
+                    statistics.reset();
+                } finally {
+                    pvRecord.unlock();
+                }
+                previousPuts.remove(pvRecord.getRecordName());
+            }
+        } else if(command.length()>0 && !command.equals("get")) {
+            pvResult.put("illegal command " + command);
+            return;
+        }
+        get(records,name.length()>0);
+        pvResult.put("success");
+        super.process();
+    }
+
+    private void get(ArrayList<PVRecord> records,boolean single) {
+        ArrayList<PVRecord> enabled = new ArrayList<PVRecord>();
+        for(PVRecord pvRecord : records) {
+            if(pvRecord.getStatistics()!=null) enabled.add(pvRecord);
+        }
+        if(!single) {
+            Collections.sort(enabled,new Comparator<PVRecord>() {
+                public int compare(PVRecord a,PVRecord b) {
+                    return Long.compare(totalProcess(b),totalProcess(a));
+                }
+            });
+            int topN = pvTopN.get();
+            if(topN<=0) topN = 10;
+            while(enabled.size()>topN) enabled.remove(enabled.size()-1);
+        }
+        int n = enabled.size();
+        String[] names = new String[n];
+        long[] processCount = new long[n];
+        double[] processAverage = new double[n];
+        double[] processMax = new double[n];
+        double[] lockWaitAverage = new double[n];
+        double[] lockWaitMax = new double[n];
+        double[] lockHoldAverage = new double[n];
+        double[] lockHoldMax = new double[n];
+        double[] dispatchAverage = new double[n];
+        double[] putRate = new double[n];
+        long[] histogram = new long[single&&n>0 ? RecordStatistics.Timer.NUMBER_BUCKETS : 0];
+        long now = System.nanoTime();
+        for(int i=0; i<n; i++) {
+            PVRecord pvRecord = enabled.get(i);
+            RecordStatistics statistics = pvRecord.getStatistics();
+            if(statistics==null) continue;
+            names[i] = pvRecord.getRecordName();
+            RecordStatistics.Timer timer = statistics.getProcess();
+            processCount[i] = timer.getCount();
+            processAverage[i] = timer.getAverageNanos()/1e3;
+            processMax[i] = timer.getMaxNanos()/1e3;
+            if(histogram.length>0) timer.getHistogram(histogram);
+            timer = statistics.getLockWait();
+            lockWaitAverage[i] = timer.getAverageNanos()/1e3;
+            lockWaitMax[i] = timer.getMaxNanos()/1e3;
+            timer = statistics.getLockHold();
+            lockHoldAverage[i] = timer.getAverageNanos()/1e3;
+            lockHoldMax[i] = timer.getMaxNanos()/1e3;
+            dispatchAverage[i] = statistics.getDispatch().getAverageNanos()/1e3;
+            long putCount = statistics.getPutCount();
+            long[] previous = previousPuts.get(names[i]);
+            if(previous==null || previous[0]>putCount) {
+                previous = new long[] {0,statistics.getStartNanos()};
+            }
+            long interval = now - previous[1];
+            putRate[i] = (interval<=0) ? 0.0 : (putCount-previous[0])*1e9/interval;
+            previousPuts.put(names[i],new long[] {putCount,now});
+        }
+        pvNames.shareData(names);
+        pvProcessCount.shareData(processCount);
+        pvProcessAverage.shareData(processAverage);
+        pvProcessMax.shareData(processMax);
+        pvLockWaitAverage.shareData(lockWaitAverage);
+        pvLockWaitMax.shareData(lockWaitMax);
+        pvLockHoldAverage.shareData(lockHoldAverage);
+        pvLockHoldMax.shareData(lockHoldMax);
+        pvDispatchAverage.shareData(dispatchAverage);
+        pvPutRate.shareData(putRate);
+        pvProcessHistogram.shareData(histogram);
+    }
+
+    private static long totalProcess(PVRecord pvRecord) {
+        RecordStatistics statistics = pvRecord.getStatistics();
+        return (statistics==null) ? 0 : statistics.getProcess().getTotalNanos();
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary trace of record events.
+ * Each thread that records an event gets its own preallocated ring buffer,
+ * so record does not allocate, lock, or format strings.
+ * When a ring buffer is full the oldest events are overwritten.
+ * The events are retrieved via drain.
+ * The ring buffer of a thread that has terminated is discarded once its events are drained.
+ */
+public final class TraceBuffer {
+    /**
+     * Handler for events retrieved by drain.
+     */
+    public interface Handler {
+        /**
+         * An event.
+         * @param threadName The name of the thread that recorded the event.
+         * @param timeNanos The value of System.nanoTime() when the event was recorded.
+         * @param event The event code.
+         * @param recordId The id of the record, see PVRecord.getId().
+         */
+        void event(String threadName,long timeNanos,int event,int recordId);
+    }
+
+    public static final int DESTROY = 0;
+    public static final int PROCESS = 1;
+    public static final int LOCK = 2;
+    public static final int UNLOCK = 3;
+    public static final int LOCK_SHARED = 4;
+    public static final int UNLOCK_SHARED = 5;
+    public static final int TRY_LOCK = 6;
+    public static final int LOCK_OTHER_RECORD = 7;
+    public static final int ADD_CLIENT = 8;
+    public static final int REMOVE_CLIENT = 9;
+    public static final int ADD_LISTENER = 10;
+    public static final int REMOVE_LISTENER = 11;
+    public static final int BEGIN_GROUP_PUT = 12;
+    public static final int END_GROUP_PUT = 13;
+    public static final int FIELD_ADD_LISTENER = 14;
+    public static final int FIELD_REMOVE_LISTENER = 15;
+    public static final int CHANNEL_DESTROY = 16;
+    public static final int CHANNEL_DETACH = 17;
+    public static final int CHANNEL_PROCESS_CREATE = 18;
+    public static final int CHANNEL_GET_CREATE = 19;
+    public static final int CHANNEL_GET = 20;
+    public static final int CHANNEL_PUT_CREATE = 21;
+    public static final int CHANNEL_PUT_GET = 22;
+    public static final int CHANNEL_PUT = 23;
+    public static final int CHANNEL_PUTGET_CREATE = 24;
+    public static final int CHANNEL_PUTGET = 25;
+    public static final int CHANNEL_PUTGET_GETPUT = 26;
+    public static final int CHANNEL_PUTGET_GETGET = 27;
+    public static final int CHANNEL_RPC_CREATE = 28;
+    public static final int CHANNEL_RPC_REQUEST = 29;
+    public static final int CHANNEL_ARRAY_CREATE = 30;
+    public static final int CHANNEL_ARRAY_GET = 31;
+    public static final int CHANNEL_ARRAY_PUT = 32;
+    public static final int MONITOR_DESTROY = 33;
+    public static final int MONITOR_START = 34;
+    public static final int MONITOR_STOP = 35;
+    public static final int MONITOR_POLL = 36;
+    public static final int MONITOR_RELEASE = 37;
+    public static final int MONITOR_RELEASE_ACTIVE = 38;
+    public static final int MONITOR_DATA_PUT = 39;
+    public static final int MONITOR_BEGIN_GROUP_PUT = 40;
+    public static final int MONITOR_END_GROUP_PUT = 41;
+    public static final int MONITOR_UNLISTEN = 42;
+
+    private static final String[] eventNames = {
+        "destroy","process","lock","unlock","lockShared","unlockShared","tryLock",
+        "lockOtherRecord","addPVRecordClient","removePVRecordClient",
+        "addListener","removeListener","beginGroupPut","endGroupPut",
+        "PVRecordField::addListener","PVRecordField::removeListener",
+        "ChannelLocal::destroy","ChannelLocal::detach",
+        "ChannelProcessLocal::create","ChannelGetLocal::create","ChannelGetLocal::get",
+        "ChannelPutLocal::create","ChannelPutLocal::get","ChannelPutLocal::put",
+        "ChannelPutGetLocal::create","ChannelPutGetLocal::putGet",
+        "ChannelPutGetLocal::getPut","ChannelPutGetLocal::getGet",
+        "ChannelRPCLocal::create","ChannelRPCLocal::request",
+        "ChannelArray::create","ChannelArray::getArray","ChannelArray::putArray",
+        "MonitorLocal::destroy","MonitorLocal::start","MonitorLocal::stop",
+        "MonitorLocal::poll","MonitorLocal::release","MonitorLocal::releaseActiveElement",
+        "MonitorLocal::dataPut","MonitorLocal::beginGroupPut","MonitorLocal::endGroupPut",
+        "MonitorLocal::unlisten"
+    };
+
+    /**
+     * Get the name of an event code.
+     * @param event The event code.
+     * @return The name.
+     */
+    public static String getEventName(int event) {
+        if(event<0 || event>=eventNames.length) return "event " + event;
+        return eventNames[event];
+    }
+
+    private static volatile int capacity = 4096;
+    private static final ArrayList<Ring> ringList = new ArrayList<Ring>();
+    private static final ThreadLocal<Ring> threadRing = new ThreadLocal<Ring>() {
+        protected Ring initialValue() {
+            Ring ring = new Ring(Thread.currentThread(),capacity);
+            synchronized(ringList) {
+                prune(ringList);
+                ringList.add(ring);
+            }
+            return ring;
+        }
+    };
+
+    private TraceBuffer() {}
+
+    /**
+     * Set the number of events each thread can hold before the oldest are overwritten.
+     * This only affects threads that have not yet recorded an event.
+     * @param number The number of events. It is rounded up to a power of two.
+     */
+    public static void setCapacity(int number) {
+        int size = 16;
+        while(size<number && size<(1<<30)) size <<= 1;
+        capacity = size;
+    }
+    /**
+     * Record an event in the ring buffer of the calling thread.
+     * @param event The event code.
+     * @param recordId The id of the record.
+     */
+    public static void record(int event,int recordId) {
+        threadRing.get().record(event,recordId);
+    }
+    /**
+     * Pass all events recorded since the previous drain to handler.
+     * The events of each thread are passed oldest first.
+     * Events that were overwritten before they could be drained are lost.
+     * @param handler The handler.
+     * @return The number of events passed to handler.
+     */
+    public static int drain(Handler handler) {
+        Ring[] rings;
+        synchronized(ringList) {
+            rings = ringList.toArray(new Ring[ringList.size()]);
+        }
+        int number = 0;
+        for(int i=0; i<rings.length; i++) {
+            number += rings[i].drain(handler);
+        }
+        synchronized(ringList) {
+            prune(ringList);
+        }
+        return number;
+    }
+
+    // remove the rings of terminated threads whose events have all been drained.
+    private static void prune(ArrayList<Ring> rings) {
+        Iterator<Ring> iter = rings.iterator();
+        while(iter.hasNext()) {
+            Ring ring = iter.next();
+            if(!ring.isAlive() && ring.isDrained()) iter.remove();
+        }
+    }
+
+    private static final class Ring {
+        private final String threadName;
+        // a weak reference so that the ring does not keep a terminated thread.
+        private final WeakReference<Thread> owner;
+        private final int mask;
+        private final long[] times;
+        private final int[] events;
+        private final int[] recordIds;
+        // only the owning thread writes next. lazySet publishes the slot contents.
+        private final AtomicLong next = new AtomicLong(0);
+        // guarded by this
+        private long drained = 0;
+
+        private Ring(Thread thread,int capacity) {
+            threadName = thread.getName();
+            owner = new WeakReference<Thread>(thread);
+            mask = capacity - 1;
+            times = new long[capacity];
+            events = new int[capacity];
+            recordIds = new int[capacity];
+        }
+
+        private void record(int event,int recordId) {
+            long n = next.get();
+            int index = (int)(n & mask);
+            times[index] = System.nanoTime();
+            events[index] = event;
+            recordIds[index] = recordId;
+            next.lazySet(n+1);
+        }
+
+        private boolean isAlive() {
+            Thread thread = owner.get();
+            return thread!=null && thread.isAlive();
+        }
+
+        private synchronized boolean isDrained() {
+            return drained==next.get();
+        }
+
+        private synchronized int drain(Handler handler) {
+            int capacity = mask + 1;
+            long end = next.get();
+            long start = Math.max(drained,end-capacity);
+            int length = (int)(end - start);
+            long[] timeCopy = new long[length];
+            int[] eventCopy = new int[length];
+            int[] idCopy = new int[length];
+            for(int i=0; i<length; i++) {
+                int index = (int)((start+i) & mask);
+                timeCopy[i] = times[index];
+                eventCopy[i] = events[index];
+                idCopy[i] = recordIds[index];
+            }
+            // the owner may have overwritten the oldest slots while they were copied.
+            long oldestValid = next.get() - capacity;
+            int first = (int)Math.max(0,oldestValid-start);
+            drained = end;
+            for(int i=first; i<length; i++) {
+                handler.event(threadName,timeCopy[i],eventCopy[i],idCopy[i]);
+            }
+            return Math.max(0,length-first);
+        }
+    }
+}
@@ -9,11 +9,11 @@
 
 package org.epics.pvdatabase;
 
+import java.util.HashMap;
+
 import org.epics.pvdata.factory.FieldFactory;
-import org.epics.pvdata.factory.PVDataFactory;
 import org.epics.pvdata.pv.FieldBuilder;
-import org.epics.pvdata.pv.FieldCreate;
-import org.epics.pvdata.pv.PVDataCreate;
+import org.epics.pvdata.pv.PVBoolean;
 import org.epics.pvdata.pv.PVInt;
 import org.epics.pvdata.pv.PVString;
 import org.epics.pvdata.pv.PVStructure;
@@ -23,7 +23,10 @@ import org.epics.pvdata.pv.Structure;
 /**
  * Set the trace level for another record in the same database.
  * It is meant to be used via a channelPutGet request.
- * The argument has two fields: recordName, and level.
+ * The argument has four fields: recordName, level, buffer, and dump.
+ * If buffer is true the trace output of the record is recorded in TraceBuffer instead of printed.
+ * If dump is true then recordName, level, and buffer are ignored and
+ * all events in TraceBuffer are drained and printed.
  * The result has a field named status.
  * @author mrk
  * @since 2016.07
@@ -32,37 +35,63 @@ public class TraceRecord extends PVRecord {
     PVDatabase pvDatabase;
     PVString pvRecordName;
     PVInt pvLevel;
+    PVBoolean pvBuffer;
+    PVBoolean pvDump;
     PVString pvResult;
 
-    public static PVRecord create(String recordName)
+    private static final RecordTemplate template = RecordTemplate.get(createStructure());
+
+    private static Structure createStructure()
     {
-        FieldCreate fieldCreate = FieldFactory.getFieldCreate();
-        PVDataCreate pvDataCreate = PVDataFactory.getPVDataCreate();
-        FieldBuilder fb = fieldCreate.createFieldBuilder();
-        Structure structure = 
+        FieldBuilder fb = FieldFactory.getFieldCreate().createFieldBuilder();
+        return
                 fb.addNestedStructure("argument").
                 add("recordName",ScalarType.pvString).
                 add("level",ScalarType.pvInt).
+                add("buffer",ScalarType.pvBoolean).
+                add("dump",ScalarType.pvBoolean).
                 endNested().
                 addNestedStructure("result").
                 add("status",ScalarType.pvString).
                 endNested().
                 createStructure();
-        PVRecord pvRecord = new TraceRecord(recordName,pvDataCreate.createPVStructure(structure));
-        PVDatabase master = PVDatabaseFactory.getMaster();
-        master.addRecord(pvRecord);
+    }
+
+    public static PVRecord create(String recordName)
+    {
+        return create(recordName,PVDatabaseFactory.getMaster());
+    }
+    /**
+     * Create the record and add it to a database.
+     * @param recordName The record name.
+     * @param pvDatabase The database. Commands apply to records in this database.
+     * @return The record.
+     */
+    public static PVRecord create(String recordName,PVDatabase pvDatabase)
+    {
+        PVRecord pvRecord = new TraceRecord(recordName,pvDatabase);
+        pvDatabase.addRecord(pvRecord);
         return pvRecord;
     }
-    private TraceRecord(String recordName,PVStructure pvStructure) {
-        super(recordName,pvStructure);
-        pvRecordName = pvStructure.getSubField(PVString.class,"argument.recordName");
-        pvLevel = pvStructure.getSubField(PVInt.class,"argument.level");
-        pvResult = pvStructure.getSubField(PVString.class,"result.status");
-        pvDatabase = PVDatabaseFactory.getMaster();
+    private TraceRecord(String recordName,PVDatabase pvDatabase) {
+        super(recordName,template);
+        PVStructure pvStructure = getPVRecordStructure().getPVStructure();
+        pvRecordName = template.getSubField(pvStructure,PVString.class,"argument.recordName");
+        pvLevel = template.getSubField(pvStructure,PVInt.class,"argument.level");
+        pvBuffer = template.getSubField(pvStructure,PVBoolean.class,"argument.buffer");
+        pvDump = template.getSubField(pvStructure,PVBoolean.class,"argument.dump");
+        pvResult = template.getSubField(pvStructure,PVString.class,"result.status");
+        this.pvDatabase = pvDatabase;
     }
 
     public void process()
     {
+        if(pvDump.get()) {
+            int number = TraceBuffer.drain(new Dump());
+            pvResult.put("dumped " + number + " events");
+            super.process();
+            return;
+        }
         String name = pvRecordName.get();
         PVRecord pvRecord = pvDatabase.findRecord(name);
         if(pvRecord==null) {
@@ -70,7 +99,27 @@ public class TraceRecord extends PVRecord {
             return;
         }
         pvRecord.setTraceLevel(pvLevel.get());
+        pvRecord.setTraceBuffer(pvBuffer.get());
         pvResult.put("success");
         super.process();
     }
+
+    private class Dump implements TraceBuffer.Handler {
+        private final HashMap<Integer,String> recordNames = new HashMap<Integer,String>();
+
+        private Dump() {
+            String[] names = pvDatabase.getRecordNames();
+            for(int i=0; i<names.length; i++) {
+                PVRecord pvRecord = pvDatabase.findRecord(names[i]);
+                if(pvRecord!=null) recordNames.put(pvRecord.getId(),names[i]);
+            }
+        }
+
+        public void event(String threadName,long timeNanos,int event,int recordId) {
+            String recordName = recordNames.get(recordId);
+            if(recordName==null) recordName = "record " + recordId;
+            System.out.println(timeNanos + " " + threadName + " "
+                + TraceBuffer.getEventName(event) + " " + recordName);
+        }
+    }
 }
@@ -0,0 +1,55 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase.journal;
+
+import java.io.IOException;
+
+import org.epics.pvdatabase.PVRecord;
+
+/**
+ * Journal of the puts to records.
+ * At the end of each group put the changed fields of a journaled record are
+ * serialized and queued. The caller does not wait for the disk
+ * unless the writer has fallen behind by a full queue of entries, then it waits for room.
+ * A background thread appends the queued entries to the file and
+ * forces all entries written in one pass with a single force.
+ * A record is removed automatically when it is destroyed.
+ */
+public interface Journal {
+    /**
+     * Start journaling a record.
+     * @param pvRecord The record.
+     * @return false if the record is already journaled, was destroyed, or the journal was destroyed.
+     */
+    boolean addRecord(PVRecord pvRecord);
+    /**
+     * Stop journaling a record.
+     * @param pvRecord The record.
+     * @return false if the record was not journaled.
+     */
+    boolean removeRecord(PVRecord pvRecord);
+    /**
+     * Wait until every entry queued before this call is on disk.
+     * @throws InterruptedException If interrupted while waiting.
+     * @throws IOException If a write to the file failed.
+     * After a failure no more entries are accepted, so every later flush also fails.
+     */
+    void flush() throws InterruptedException, IOException;
+    /**
+     * Get the number of entries queued.
+     * @return The count.
+     */
+    long getNumberEntries();
+    /**
+     * Get the number of times the file was forced to disk.
+     * @return The count.
+     */
+    long getNumberCommits();
+    /**
+     * Stop journaling all records, write the remaining entries, and close the file.
+     */
+    void destroy();
+}
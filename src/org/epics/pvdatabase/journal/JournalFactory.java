@@ -0,0 +1,388 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase.journal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.epics.pvdata.factory.FieldFactory;
+import org.epics.pvdata.misc.BitSet;
+import org.epics.pvdata.misc.SerializeHelper;
+import org.epics.pvdata.pv.DeserializableControl;
+import org.epics.pvdata.pv.Field;
+import org.epics.pvdata.pv.FieldCreate;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.SerializableControl;
+import org.epics.pvdatabase.PVBitSetListener;
+import org.epics.pvdatabase.PVDatabase;
+import org.epics.pvdatabase.PVRecord;
+import org.epics.pvdatabase.PVRecordField;
+import org.epics.pvdatabase.PVRecordStructure;
+
+/**
+ * Factory for Journal.
+ * Each entry in the file is: the size of the rest of the entry, a CRC32 of the rest,
+ * the record name, the changed BitSet, and the changed fields,
+ * all in pvData binary serialization.
+ */
+public class JournalFactory {
+    /**
+     * Create a journal that appends to a file.
+     * If the file ends with an incomplete or corrupt entry, e.g. the entry being written at a crash,
+     * the file is first truncated after the last valid entry, so that new entries can be replayed.
+     * @param fileName The file name. If the file exists new entries are appended.
+     * @return The journal.
+     * @throws IOException If the file can not be opened.
+     */
+    public static Journal create(String fileName) throws IOException {
+        return new JournalImpl(fileName);
+    }
+    /**
+     * Apply the entries of a journal file to the records of a database.
+     * This is meant to be called at startup, after the records are created and a snapshot,
+     * if any, is restored, but before the records are added to a journal.
+     * Entries for records that are not in the database or that can not be deserialized are skipped.
+     * Replay stops at the first incomplete or corrupt entry, i.e. the entry being written at a crash.
+     * @param fileName The file name.
+     * @param pvDatabase The database.
+     * @return The number of entries applied.
+     * @throws IOException If the file can not be read.
+     */
+    public static int replay(String fileName,PVDatabase pvDatabase) throws IOException {
+        int[] number = new int[1];
+        read(fileName,pvDatabase,number);
+        return number[0];
+    }
+
+    private static final FieldCreate fieldCreate = FieldFactory.getFieldCreate();
+    private static final AtomicInteger numberJournals = new AtomicInteger(0);
+    private static final int STAGING_SIZE = 16*1024;
+    private static final int QUEUE_SIZE = 64*1024;
+
+    // read the valid entries of a file and apply them if pvDatabase is not null.
+    // number[0] is set to the number of entries applied. Returns the length of the valid entries.
+    private static long read(String fileName,PVDatabase pvDatabase,int[] number) throws IOException {
+        FileInputStream file = new FileInputStream(fileName);
+        // bytes not yet read. A size larger than this is corrupt.
+        long remaining = file.getChannel().size();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+        Reader reader = new Reader();
+        CRC32 crc = new CRC32();
+        long length = 0;
+        try {
+            while(true) {
+                int size;
+                try {
+                    size = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int checksum = in.readInt();
+                remaining -= 8;
+                if(size<0 || size>remaining) break;
+                remaining -= size;
+                byte[] data = new byte[size];
+                in.readFully(data);
+                crc.reset();
+                crc.update(data,0,size);
+                if((int)crc.getValue()!=checksum) break;
+                length += 8 + size;
+                if(pvDatabase!=null && apply(ByteBuffer.wrap(data),reader,pvDatabase)) ++number[0];
+            }
+        } catch (EOFException e) {
+            // the last entry is incomplete.
+        } finally {
+            in.close();
+        }
+        return length;
+    }
+
+    private static boolean apply(ByteBuffer buffer,Reader reader,PVDatabase pvDatabase) {
+        String recordName = SerializeHelper.deserializeString(buffer,reader);
+        PVRecord pvRecord = pvDatabase.findRecord(recordName);
+        if(pvRecord==null) return false;
+        PVStructure pvStructure = pvRecord.getPVRecordStructure().getPVStructure();
+        BitSet bitSet = new BitSet(pvStructure.getNumberFields());
+        try {
+            pvRecord.lock();
+            try {
+                pvRecord.beginGroupPut();
+                try {
+                    bitSet.deserialize(buffer,reader);
+                    pvStructure.deserialize(buffer,reader,bitSet);
+                    for(int offset=bitSet.nextSetBit(0); offset>=0; offset=bitSet.nextSetBit(offset+1)) {
+                        PVField pvField = pvStructure.getSubField(offset);
+                        if(pvField!=null) pvField.postPut();
+                    }
+                } finally {
+                    pvRecord.endGroupPut();
+                }
+            } finally {
+                pvRecord.unlock();
+            }
+            return true;
+        } catch (Throwable th) {
+            System.err.println("journal replay " + recordName + " " + th);
+            return false;
+        }
+    }
+
+    private static class JournalImpl implements Journal {
+        private final FileChannel channel;
+        private final Thread thread;
+        // entries waiting for the writer. An empty array means stop.
+        // When it is full a put waits for the writer, so memory is bounded if the disk is slow.
+        private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>(QUEUE_SIZE);
+        private final HashMap<PVRecord,Listener> listenerMap = new HashMap<PVRecord,Listener>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean isDestroyed = false;
+        private final AtomicLong numberEntries = new AtomicLong(0);
+        // set by the first failed write. Later entries are not accepted.
+        private volatile IOException writeError = null;
+        // guarded by this
+        private long numberWritten = 0;
+        private long numberCommits = 0;
+
+        private JournalImpl(String fileName) throws IOException {
+            channel = new FileOutputStream(fileName,true).getChannel();
+            // entries appended after a torn entry could never be replayed.
+            long length = read(fileName,null,new int[1]);
+            if(channel.size()>length) {
+                System.err.println("journal " + fileName + " truncated to " + length + " bytes");
+                channel.truncate(length);
+            }
+            thread = new Thread(new Runnable() {
+                public void run() {
+                    write();
+                }
+            },"journal" + numberJournals.getAndIncrement());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public boolean addRecord(PVRecord pvRecord) {
+            Listener listener;
+            lock.lock();
+            try {
+                if(isDestroyed) return false;
+                if(listenerMap.containsKey(pvRecord)) return false;
+                listener = new Listener(this);
+                listenerMap.put(pvRecord,listener);
+            } finally {
+                lock.unlock();
+            }
+            // a PVBitSetListener does not use pvCopy.
+            if(!pvRecord.addListener(listener,null)) {
+                removeRecord(pvRecord);
+                return false;
+            }
+            return true;
+        }
+
+        public boolean removeRecord(PVRecord pvRecord) {
+            Listener listener;
+            lock.lock();
+            try {
+                listener = listenerMap.remove(pvRecord);
+                if(listener==null) return false;
+            } finally {
+                lock.unlock();
+            }
+            pvRecord.removeListener(listener,null);
+            return true;
+        }
+
+        public void flush() throws InterruptedException, IOException {
+            long target = numberEntries.get();
+            synchronized(this) {
+                while(numberWritten<target && thread.isAlive() && writeError==null) wait();
+            }
+            IOException e = writeError;
+            if(e!=null) throw new IOException("journal write failed: " + e.getMessage(),e);
+        }
+
+        public long getNumberEntries() {
+            return numberEntries.get();
+        }
+
+        public synchronized long getNumberCommits() {
+            return numberCommits;
+        }
+
+        public void destroy() {
+            PVRecord[] records;
+            lock.lock();
+            try {
+                if(isDestroyed) return;
+                isDestroyed = true;
+                records = listenerMap.keySet().toArray(new PVRecord[listenerMap.size()]);
+            } finally {
+                lock.unlock();
+            }
+            for(int i=0; i<records.length; i++) removeRecord(records[i]);
+            try {
+                queue.put(new byte[0]);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                thread.interrupt();
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("journal close " + e.getMessage());
+            }
+        }
+
+        // called with the record locked. Only waits when the writer is QUEUE_SIZE entries behind.
+        private void queue(byte[] entry) {
+            if(writeError!=null) return;
+            try {
+                queue.put(entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("journal entry dropped: interrupted");
+                return;
+            }
+            numberEntries.incrementAndGet();
+        }
+
+        // the writer thread. All entries available are written and then forced once.
+        private void write() {
+            ArrayList<byte[]> entries = new ArrayList<byte[]>();
+            boolean stop = false;
+            while(!stop) {
+                try {
+                    entries.add(queue.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+                queue.drainTo(entries);
+                ByteBuffer[] buffers = new ByteBuffer[entries.size()];
+                int number = 0;
+                for(int i=0; i<entries.size(); i++) {
+                    byte[] entry = entries.get(i);
+                    if(entry.length==0) {
+                        stop = true;
+                        continue;
+                    }
+                    buffers[number++] = ByteBuffer.wrap(entry);
+                }
+                // after a failure the file is in an unknown state, so nothing more is written.
+                if(writeError!=null) number = 0;
+                try {
+                    long remaining = 0;
+                    for(int i=0; i<number; i++) remaining += buffers[i].remaining();
+                    while(remaining>0) remaining -= channel.write(buffers,0,number);
+                    if(number>0) channel.force(false);
+                } catch (IOException e) {
+                    System.err.println("journal write " + e.getMessage());
+                    writeError = e;
+                    number = 0;
+                }
+                synchronized(this) {
+                    numberWritten += number;
+                    if(number>0) ++numberCommits;
+                    notifyAll();
+                }
+                entries.clear();
+            }
+            synchronized(this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private static class Listener implements PVBitSetListener, SerializableControl {
+        private final JournalImpl journal;
+        // following are only used while the record is locked.
+        private final ByteBuffer staging = ByteBuffer.allocate(STAGING_SIZE);
+        private final ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        private final CRC32 crc = new CRC32();
+
+        private Listener(JournalImpl journal) {
+            this.journal = journal;
+        }
+
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVBitSetListener#dataPut(org.epics.pvdatabase.PVRecord, org.epics.pvdata.misc.BitSet)
+         */
+        public void dataPut(PVRecord pvRecord,BitSet changedBitSet) {
+            PVStructure pvStructure = pvRecord.getPVRecordStructure().getPVStructure();
+            entry.reset();
+            // room for size and crc.
+            staging.putLong(0);
+            SerializeHelper.serializeString(pvRecord.getRecordName(),staging,this);
+            changedBitSet.serialize(staging,this);
+            pvStructure.serialize(staging,this,changedBitSet);
+            flushSerializeBuffer();
+            byte[] data = entry.toByteArray();
+            int size = data.length - 8;
+            crc.reset();
+            crc.update(data,8,size);
+            ByteBuffer.wrap(data).putInt(size).putInt((int)crc.getValue());
+            journal.queue(data);
+        }
+
+        public void dataPut(PVRecordField pvRecordField) {}
+
+        public void dataPut(PVRecordStructure requested,PVRecordField pvRecordField) {}
+
+        public void beginGroupPut(PVRecord pvRecord) {}
+
+        public void endGroupPut(PVRecord pvRecord) {}
+
+        public void unlisten(PVRecord pvRecord) {
+            journal.removeRecord(pvRecord);
+        }
+
+        public void flushSerializeBuffer() {
+            staging.flip();
+            entry.write(staging.array(),staging.arrayOffset()+staging.position(),staging.remaining());
+            staging.clear();
+        }
+
+        public void ensureBuffer(int size) {
+            if(staging.remaining()<size) flushSerializeBuffer();
+        }
+
+        public void alignBuffer(int alignment) {}
+
+        public void cachedSerialize(Field field,ByteBuffer buffer) {
+            field.serialize(buffer,this);
+        }
+    }
+
+    // all data is in the buffer.
+    private static class Reader implements DeserializableControl {
+        public void ensureData(int size) {}
+
+        public void alignData(int alignment) {}
+
+        public Field cachedDeserialize(ByteBuffer buffer) {
+            return fieldCreate.deserialize(buffer,this);
+        }
+    }
+}
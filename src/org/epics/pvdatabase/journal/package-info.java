@@ -0,0 +1,7 @@
+/**
+ * Write ahead journal of puts to PVRecords.
+ * The fields changed by each group put are appended to a file by a background thread,
+ * which commits many entries with one force.
+ */
+
+package org.epics.pvdatabase.journal;
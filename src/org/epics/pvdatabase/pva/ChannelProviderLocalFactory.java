@@ -11,11 +11,12 @@ package org.epics.pvdatabase.pva;
  * @since 2015.01.20
  */
 
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
 import org.epics.pvaccess.client.AccessRights;
 import org.epics.pvaccess.client.Channel;
@@ -73,6 +74,7 @@ import org.epics.pvdatabase.PVDatabase;
 import org.epics.pvdatabase.PVDatabaseFactory;
 import org.epics.pvdatabase.PVRecord;
 import org.epics.pvdatabase.PVRecordClient;
+import org.epics.pvdatabase.TraceBuffer;
 
 /**
  * Factory and implementation of channel provider <b>local</b>.
@@ -100,6 +102,18 @@ public class ChannelProviderLocalFactory  {
     static public ChannelProvider getChannelProviderLocal() {
         return ChannelProviderLocal.getChannelProviderLocal();
     }
+    /**
+     * Create a channel provider that serves the records of a database
+     * and register it with the ChannelProviderRegistry.
+     * @param providerName The name of the provider. It must differ from <b>local</b>.
+     * @param pvDatabase The database.
+     * @return The ChannelProvider
+     */
+    static public ChannelProvider createChannelProviderLocal(String providerName,PVDatabase pvDatabase) {
+        ChannelProviderLocal provider = new ChannelProviderLocal(providerName,pvDatabase);
+        provider.register();
+        return provider;
+    }
     private static final String providerName = "local";
     private static final PVDataCreate pvDataCreate = PVDataFactory.getPVDataCreate();
     private static final Convert convert = ConvertFactory.getConvert();
@@ -117,6 +131,24 @@ public class ChannelProviderLocalFactory  {
     private static final Status illegalRequestStatus = statusCreate.createStatus(StatusType.ERROR, "illegal pvRequest", null);
     private static final Status notImplementedStatus = statusCreate.createStatus(StatusType.ERROR, "not implemented", null);
 
+    // status of a future returned by PVRecord.invokeProcess. It must be complete.
+    private static Status getProcessStatus(CompletableFuture<Void> done) {
+        try {
+            done.get();
+            return okStatus;
+        } catch (ExecutionException e) {
+            return getProcessStatus(e.getCause());
+        } catch (InterruptedException e) {
+            return getProcessStatus(e);
+        }
+    }
+
+    private static Status getProcessStatus(Throwable th) {
+        if(th==null) return okStatus;
+        if(th instanceof CompletionException && th.getCause()!=null) th = th.getCause();
+        return statusCreate.createStatus(StatusType.ERROR, "process failed " + th.getMessage(), th);
+    }
+
     private static boolean getProcess(PVStructure pvRequest,boolean processDefault) {
         PVField pvField = pvRequest.getSubField("record._options.process");
         if(pvField==null || pvField.getField().getType()!=Type.scalar) return processDefault;
@@ -132,8 +164,10 @@ public class ChannelProviderLocalFactory  {
     }
 
     private static class ChannelFindLocal implements ChannelFind {
+        private final ChannelProvider provider;
 
-        private ChannelFindLocal() {
+        private ChannelFindLocal(ChannelProvider provider) {
+            this.provider = provider;
         }   
         /* (non-Javadoc)
          * @see org.epics.pvaccess.client.ChannelFind#cancel()
@@ -145,80 +179,73 @@ public class ChannelProviderLocalFactory  {
          */
         @Override
         public ChannelProvider getChannelProvider() {
-            return getChannelProviderLocal();
+            return provider;
         } 
     }
 
     private static class ChannelProviderLocal implements ChannelProvider{
 
         private static ChannelProviderLocal singleImplementation = null;
-        private PVDatabase pvDatabase = PVDatabaseFactory.getMaster();
-        private ReentrantLock lock = new ReentrantLock();
-        private boolean beingDestroyed = false;
-        private ChannelFind channelFinder = new ChannelFindLocal();
+        private final String name;
+        private final PVDatabase pvDatabase;
+        private final AtomicBoolean beingDestroyed = new AtomicBoolean(false);
+        private final ChannelFind channelFinder = new ChannelFindLocal(this);
 
         private static synchronized ChannelProviderLocal getChannelProviderLocal() {
             if (singleImplementation==null) {
-                singleImplementation = new ChannelProviderLocal();
-                ChannelProviderRegistryFactory.registerChannelProviderFactory(
-                        new ChannelProviderFactory() {
-
-                            @Override
-                            public ChannelProvider sharedInstance() {
-                                return singleImplementation;
-                            }
-
-                            @Override
-                            public ChannelProvider newInstance() {
-                                throw new RuntimeException("not supported");
-                            }
-
-                            @Override
-                            public String getFactoryName() {
-                                return providerName;
-                            }
-                        });
+                singleImplementation = new ChannelProviderLocal(providerName,PVDatabaseFactory.getMaster());
+                singleImplementation.register();
             }
             return singleImplementation;
         }
-        private ChannelProviderLocal(){
-        } // don't allow creation except by getChannelServer. 
+        private ChannelProviderLocal(String name,PVDatabase pvDatabase){
+            this.name = name;
+            this.pvDatabase = pvDatabase;
+        } // don't allow creation except by getChannelProviderLocal or createChannelProviderLocal.
+        private void register() {
+            ChannelProviderRegistryFactory.registerChannelProviderFactory(
+                    new ChannelProviderFactory() {
+
+                        @Override
+                        public ChannelProvider sharedInstance() {
+                            return ChannelProviderLocal.this;
+                        }
+
+                        @Override
+                        public ChannelProvider newInstance() {
+                            throw new RuntimeException("not supported");
+                        }
+
+                        @Override
+                        public String getFactoryName() {
+                            return name;
+                        }
+                    });
+        }
         public void destroy() {
-            lock.lock();
-            try {
-                if(beingDestroyed) return;
-                beingDestroyed = true;
-                pvDatabase.destroy();
-            } finally {
-                lock.unlock();
-            }
+            if(!beingDestroyed.compareAndSet(false,true)) return;
+            pvDatabase.destroy();
         }
         public String getProviderName() {
-            return providerName;
+            return name;
         }
         /* (non-Javadoc)
          * @see org.epics.pvaccess.client.ChannelProvider#channelFind(java.lang.String, org.epics.pvaccess.client.ChannelFindRequester)
          */
         public ChannelFind channelFind(String channelName,ChannelFindRequester channelFindRequester) {
-            lock.lock();
-            try {
-                PVRecord pvRecord = pvDatabase.findRecord(channelName);
-                if(pvRecord!=null) {
-                    channelFindRequester.channelFindResult(okStatus, channelFinder,true);
-                } else {
-                    channelFindRequester.channelFindResult(notFoundStatus,channelFinder,false);
-                }
-                return channelFinder;
-            } finally {
-                lock.unlock();
+            // a lazy record is only created by createChannel.
+            if(pvDatabase.containsRecord(channelName)) {
+                channelFindRequester.channelFindResult(okStatus, channelFinder,true);
+            } else {
+                channelFindRequester.channelFindResult(notFoundStatus,channelFinder,false);
             }
+            return channelFinder;
         }
         /* (non-Javadoc)
          * @see org.epics.pvaccess.client.ChannelProvider#channelList(org.epics.pvaccess.client.ChannelListRequester)
          */
         public ChannelFind channelList(ChannelListRequester channelListRequester) {
-            Set<String> channelNamesSet = new HashSet<String>(Arrays.asList(pvDatabase.getRecordNames()));
-            channelListRequester.channelListResult(okStatus, channelFinder, channelNamesSet, false);
+            channelListRequester.channelListResult(okStatus, channelFinder, pvDatabase.getRecordNameSet(), false);
             return channelFinder;
         }
         /* (non-Javadoc)
@@ -240,20 +267,15 @@ public class ChannelProviderLocalFactory  {
          */
         @Override
         public Channel createChannel(String channelName,ChannelRequester channelRequester, short priority) {
-            lock.lock();
-            try {
-                PVRecord pvRecord = pvDatabase.findRecord(channelName);
-                if(pvRecord!=null) {
-                    ChannelLocal channel = new ChannelLocal(this,pvRecord,channelRequester);
-                    channelRequester.channelCreated(okStatus, channel);
-                    pvRecord.addPVRecordClient(channel);
-                    return channel;
-                } else {
-                    channelRequester.channelCreated(notFoundStatus, null);
-                    return null;
-                }
-            } finally {
-                lock.unlock();
+            PVRecord pvRecord = pvDatabase.findRecord(channelName);
+            if(pvRecord!=null) {
+                ChannelLocal channel = new ChannelLocal(this,pvRecord,channelRequester);
+                channelRequester.channelCreated(okStatus, channel);
+                pvRecord.addPVRecordClient(channel);
+                return channel;
+            } else {
+                channelRequester.channelCreated(notFoundStatus, null);
+                return null;
             }
         }
     }
@@ -275,7 +297,7 @@ public class ChannelProviderLocalFactory  {
          */
         @Override
         public void destroy() {
-            if(pvRecord.getTraceLevel()>0) {
+            if(pvRecord.trace(1,TraceBuffer.CHANNEL_DESTROY)) {
                 System.out.println("ChannelLocal::destroy() isDestroyed " + isDestroyed.get());
             }
             if(!isDestroyed.compareAndSet(false, true)) return;
@@ -286,7 +308,7 @@ public class ChannelProviderLocalFactory  {
          */
         @Override
         public void detach(PVRecord pvRecord) {
-            if(pvRecord.getTraceLevel()>0) {
+            if(pvRecord.trace(1,TraceBuffer.CHANNEL_DETACH)) {
                 System.out.println("ChannelLocal::detach()");
             }
             channelRequester.channelStateChange(this, ConnectionState.DESTROYED);
@@ -503,7 +525,7 @@ public class ChannelProviderLocalFactory  {
                         if(pvString!=null) nProcess = Integer.parseInt(pvString.get());
                     }
                 }
-                if(pvRecord.getTraceLevel()>0) {
+                if(pvRecord.trace(1,TraceBuffer.CHANNEL_PROCESS_CREATE)) {
                     System.out.println("ChannelProcessLocal::create recordName " + pvRecord.getRecordName());
                 }
                 ChannelProcessLocal processLocal = new ChannelProcessLocal(
@@ -537,15 +559,39 @@ public class ChannelProviderLocalFactory  {
                     channelProcessRequester.processDone(requestDestroyedStatus,this);
                     return;
                 }
-                for(int i=0; i< nProcess; ++i) {
+                process(nProcess);
+            }
+
+            private void process(int remaining) {
+                while(remaining>0) {
+                    CompletableFuture<Void> done;
                     pvRecord.lock();
                     try {
                         pvRecord.beginGroupPut();
-                        pvRecord.process();
+                        done = pvRecord.invokeProcess();
                         pvRecord.endGroupPut();
                     } finally {
                         pvRecord.unlock();
                     }
+                    --remaining;
+                    if(!done.isDone()) {
+                        final int next = remaining;
+                        done.whenComplete(new BiConsumer<Void,Throwable>() {
+                            public void accept(Void result,Throwable th) {
+                                if(th!=null) {
+                                    channelProcessRequester.processDone(getProcessStatus(th),ChannelProcessLocal.this);
+                                    return;
+                                }
+                                process(next);
+                            }
+                        });
+                        return;
+                    }
+                    Status status = getProcessStatus(done);
+                    if(!status.isSuccess()) {
+                        channelProcessRequester.processDone(status,this);
+                        return;
+                    }
                 }
                 channelProcessRequester.processDone(okStatus,this);
             }
@@ -603,7 +649,7 @@ public class ChannelProviderLocalFactory  {
                         pvCopy,
                         pvStructure,
                         bitSet,pvRecord);
-                if(pvRecord.getTraceLevel()>0) {
+                if(pvRecord.trace(1,TraceBuffer.CHANNEL_GET_CREATE)) {
                     System.out.println("ChannelGetLocal::create recordName " + pvRecord.getRecordName());
                 }
                 channelGetRequester.channelGetConnect(okStatus, getLocal,pvStructure.getStructure());
@@ -641,16 +687,49 @@ public class ChannelProviderLocalFactory  {
                     return;
                 }
                 bitSet.clear();
-                pvRecord.lock();
-                try {
-                    if(callProcess) {
+                if(callProcess) {
+                    CompletableFuture<Void> done;
+                    pvRecord.lock();
+                    try {
                         pvRecord.beginGroupPut();
-                        pvRecord.process();
+                        done = pvRecord.invokeProcess();
                         pvRecord.endGroupPut();
+                        if(done.isDone()) pvCopy.updateCopySetBitSet(pvStructure, bitSet);
+                    } finally {
+                        pvRecord.unlock();
+                    }
+                    if(!done.isDone()) {
+                        done.whenComplete(new BiConsumer<Void,Throwable>() {
+                            public void accept(Void result,Throwable th) {
+                                if(th==null) {
+                                    pvRecord.lockShared();
+                                    try {
+                                        pvCopy.updateCopySetBitSet(pvStructure, bitSet);
+                                    } finally {
+                                        pvRecord.unlockShared();
+                                    }
+                                }
+                                getDone(getProcessStatus(th));
+                            }
+                        });
+                        return;
                     }
+                    getDone(getProcessStatus(done));
+                    return;
+                }
+                pvRecord.lockShared();
+                try {
                     pvCopy.updateCopySetBitSet(pvStructure, bitSet);
                 } finally {
-                    pvRecord.unlock();
+                    pvRecord.unlockShared();
+                }
+                getDone(okStatus);
+            }
+
+            private void getDone(Status status) {
+                if(!status.isSuccess()) {
+                    channelGetRequester.getDone(status,this,null,null);
+                    return;
                 }
                 if(firstTime) {
                     bitSet.clear();
@@ -658,7 +737,7 @@ public class ChannelProviderLocalFactory  {
                     firstTime = false;
                 }
                 channelGetRequester.getDone(okStatus,this,pvStructure,bitSet);
-                if(pvRecord.getTraceLevel()>1) {
+                if(pvRecord.trace(2,TraceBuffer.CHANNEL_GET)) {
                     System.out.println("ChannelGetLocal::get recordName " + pvRecord.getRecordName());
                 }
             }
@@ -707,7 +786,7 @@ public class ChannelProviderLocalFactory  {
                         channelPutRequester,
                         pvCopy,
                         pvRecord);
-                if(pvRecord.getTraceLevel()>0) {
+                if(pvRecord.trace(1,TraceBuffer.CHANNEL_PUT_CREATE)) {
                     System.out.println("ChannelPutLocal::create recordName " + pvRecord.getRecordName());
                 }
                 channelPutRequester.channelPutConnect(okStatus, putLocal,pvStructure.getStructure());
@@ -740,13 +819,13 @@ public class ChannelProviderLocalFactory  {
                 BitSet bitSet = new BitSet(pvStructure.getNumberFields());
                 bitSet.clear();
                 bitSet.set(0);
-                pvRecord.lock();
+                pvRecord.lockShared();
                 try {
                     pvCopy.updateCopyFromBitSet(pvStructure, bitSet);
                 } finally {
-                    pvRecord.unlock();
+                    pvRecord.unlockShared();
                 }
-                if(pvRecord.getTraceLevel()>1) {
+                if(pvRecord.trace(2,TraceBuffer.CHANNEL_PUT_GET)) {
                     System.out.println("ChannelPutLocal::get recordName " + pvRecord.getRecordName());
                 }
                 channelPutRequester.getDone(okStatus,this,pvStructure,bitSet);
@@ -757,21 +836,32 @@ public class ChannelProviderLocalFactory  {
                     channelPutRequester.putDone(requestDestroyedStatus,this);
                     return;
                 }
+                CompletableFuture<Void> done = null;
                 pvRecord.lock();
                 try {
                     pvRecord.beginGroupPut();
                     pvCopy.updateMaster(pvPutStructure,bitSet);
                     if(callProcess) {
-                        pvRecord.process();
+                        done = pvRecord.invokeProcess();
                     }
                     pvRecord.endGroupPut();
                 } finally {
                     pvRecord.unlock();
                 }
-                if(pvRecord.getTraceLevel()>1) {
+                if(pvRecord.trace(2,TraceBuffer.CHANNEL_PUT)) {
                     System.out.println("ChannelPutLocal::put recordName " + pvRecord.getRecordName());
                 }
-                channelPutRequester.putDone(okStatus,this);
+                if(done==null) {
+                    channelPutRequester.putDone(okStatus,this);
+                } else if(done.isDone()) {
+                    channelPutRequester.putDone(getProcessStatus(done),this);
+                } else {
+                    done.whenComplete(new BiConsumer<Void,Throwable>() {
+                        public void accept(Void result,Throwable th) {
+                            channelPutRequester.putDone(getProcessStatus(th),ChannelPutLocal.this);
+                        }
+                    });
+                }
             }
         }
 
@@ -838,7 +928,7 @@ public class ChannelProviderLocalFactory  {
                         pvGetStructure,
                         getBitSet,
                         pvRecord);
-                if(pvRecord.getTraceLevel()>0) {
+                if(pvRecord.trace(1,TraceBuffer.CHANNEL_PUTGET_CREATE)) {
                     System.out.println("ChannelPutGetLocal::create recordName " + pvRecord.getRecordName());
                 }
 
@@ -870,20 +960,49 @@ public class ChannelProviderLocalFactory  {
                     channelPutGetRequester.putGetDone(requestDestroyedStatus,this,null,null);
                     return;
                 }
+                CompletableFuture<Void> done = null;
                 pvRecord.lock();
                 try {
                     pvRecord.beginGroupPut();
                     pvPutCopy.updateMaster(pvPutStructure, putBitSet);
-                    if(callProcess) pvRecord.process();
+                    if(callProcess) done = pvRecord.invokeProcess();
                     getBitSet.clear();
-                    pvGetCopy.updateCopySetBitSet(pvGetStructure, getBitSet);
+                    if(done==null || done.isDone()) {
+                        pvGetCopy.updateCopySetBitSet(pvGetStructure, getBitSet);
+                    }
                     pvRecord.endGroupPut();
                 } finally {
                     pvRecord.unlock();
                 }
-                if(pvRecord.getTraceLevel()>1) {
+                if(pvRecord.trace(2,TraceBuffer.CHANNEL_PUTGET)) {
                     System.out.println("ChannelPutGetLocal::putGet recordName " + pvRecord.getRecordName());
                 }
+                if(done==null) {
+                    putGetDone(okStatus);
+                } else if(done.isDone()) {
+                    putGetDone(getProcessStatus(done));
+                } else {
+                    done.whenComplete(new BiConsumer<Void,Throwable>() {
+                        public void accept(Void result,Throwable th) {
+                            if(th==null) {
+                                pvRecord.lockShared();
+                                try {
+                                    pvGetCopy.updateCopySetBitSet(pvGetStructure, getBitSet);
+                                } finally {
+                                    pvRecord.unlockShared();
+                                }
+                            }
+                            putGetDone(getProcessStatus(th));
+                        }
+                    });
+                }
+            }
+
+            private void putGetDone(Status status) {
+                if(!status.isSuccess()) {
+                    channelPutGetRequester.putGetDone(status,this,null,null);
+                    return;
+                }
                 channelPutGetRequester.putGetDone(okStatus,this,pvGetStructure,getBitSet);
             }
 
@@ -894,13 +1013,13 @@ public class ChannelProviderLocalFactory  {
                 }
                 PVStructure pvPutStructure = pvPutCopy.createPVStructure();
                 BitSet putBitSet = new BitSet(pvPutStructure.getNumberFields());
-                pvRecord.lock();
+                pvRecord.lockShared();
                 try {
                     pvPutCopy.initCopy(pvPutStructure, putBitSet);
                 } finally {
-                    pvRecord.unlock();
+                    pvRecord.unlockShared();
                 }
-                if(pvRecord.getTraceLevel()>1) {
+                if(pvRecord.trace(2,TraceBuffer.CHANNEL_PUTGET_GETPUT)) {
                     System.out.println("ChannelPutGetLocal::getPut recordName " + pvRecord.getRecordName());
                 }
                 channelPutGetRequester.getPutDone(okStatus,this,pvPutStructure,putBitSet);
@@ -913,13 +1032,13 @@ public class ChannelProviderLocalFactory  {
                     return;
                 }
                 getBitSet.clear();
-                pvRecord.lock();
+                pvRecord.lockShared();
                 try {
                     pvGetCopy.updateCopySetBitSet(pvGetStructure, getBitSet);
                 } finally {
-                    pvRecord.unlock();
+                    pvRecord.unlockShared();
                 }
-                if(pvRecord.getTraceLevel()>1) {
+                if(pvRecord.trace(2,TraceBuffer.CHANNEL_PUTGET_GETGET)) {
                     System.out.println("ChannelPutGetLocal::getGet recordName " + pvRecord.getRecordName());
                 }
                 channelPutGetRequester.getGetDone(okStatus,this,pvGetStructure,getBitSet);
@@ -963,7 +1082,7 @@ public class ChannelProviderLocalFactory  {
                     channelRPC = new ChannelRPCLocal(channelLocal, channelRPCRequester, pvRequest,
                             pvRecord, service);
                     channelRPCRequester.channelRPCConnect(okStatus,channelRPC);
-                    if(pvRecord.getTraceLevel()>0) {
+                    if(pvRecord.trace(1,TraceBuffer.CHANNEL_RPC_CREATE)) {
                         System.out.println("ChannelRPCLocal::create recordName " + pvRecord.getRecordName());
                     }
                 }
@@ -1064,7 +1183,7 @@ public class ChannelProviderLocalFactory  {
                     return;
                 }
 
-                if(pvRecord.getTraceLevel()>1) {
+                if(pvRecord.trace(2,TraceBuffer.CHANNEL_RPC_REQUEST)) {
                     System.out.println("ChannelRPCLocal::request");
                 }
 
@@ -1187,7 +1306,7 @@ public class ChannelProviderLocalFactory  {
                         pvArray,
                         pvCopy,
                         pvRecord);
-                if(pvRecord.getTraceLevel()>0) {
+                if(pvRecord.trace(1,TraceBuffer.CHANNEL_ARRAY_CREATE)) {
                     System.out.println("ChannelArray::create recordName " + pvRecord.getRecordName());
                 }
                 return array;
@@ -1219,7 +1338,7 @@ public class ChannelProviderLocalFactory  {
                     channelArrayRequester.getArrayDone(requestDestroyedStatus,this,null);
                     return;
                 }
-                if(pvRecord.getTraceLevel()>0) {
+                if(pvRecord.trace(1,TraceBuffer.CHANNEL_ARRAY_GET)) {
                     System.out.println("ChannelArray::getArray recordName " + pvRecord.getRecordName());
                 }
                 if(offset<0) {
@@ -1231,7 +1350,7 @@ public class ChannelProviderLocalFactory  {
                     return;
                 }
 
-                pvRecord.lock();
+                pvRecord.lockShared();
                 try {
                     boolean ok = false;
                     while(true) {
@@ -1265,7 +1384,7 @@ public class ChannelProviderLocalFactory  {
                         }
                     }
                 } finally  {
-                    pvRecord.unlock();
+                    pvRecord.unlockShared();
                 }
                 channelArrayRequester.getArrayDone(okStatus,this,pvCopy);
             }
@@ -1278,7 +1397,7 @@ public class ChannelProviderLocalFactory  {
                     channelArrayRequester.putArrayDone(requestDestroyedStatus,this);
                     return;
                 }
-                if(pvRecord.getTraceLevel()>0) {
+                if(pvRecord.trace(1,TraceBuffer.CHANNEL_ARRAY_PUT)) {
                     System.out.println("ChannelArray::putArray recordName " + pvRecord.getRecordName());
                 }
                 if(offset<0) {
@@ -1294,10 +1413,11 @@ public class ChannelProviderLocalFactory  {
                     return;
                 }
                 int newLength = offset + count*stride;
-                if(newLength<pvArray.getLength()) pvArray.setLength(newLength);
 
                 pvRecord.lock();
                 try {
+                    // the length can also be changed by the record, e.g. OffHeapArray.publish.
+                    if(newLength<pvArray.getLength()) pvArray.setLength(newLength);
                     Type type = pvArray.getArray().getType();
                     if(type==Type.scalarArray) {
                         PVScalarArray to = (PVScalarArray)pvArray;
@@ -1324,11 +1444,11 @@ public class ChannelProviderLocalFactory  {
             @Override
             public void getLength() {
                 int length = 0;
-                pvRecord.lock();
+                pvRecord.lockShared();
                 try {
                     length = pvArray.getLength();
                 } finally {
-                    pvRecord.unlock();
+                    pvRecord.unlockShared();
                 }
                 channelArrayRequester.getLengthDone(okStatus, this,length);
             }
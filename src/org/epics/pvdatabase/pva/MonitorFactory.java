@@ -6,6 +6,14 @@
  */
 package org.epics.pvdatabase.pva;
 
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.epics.pvdata.copy.PVCopy;
@@ -16,7 +24,6 @@ import org.epics.pvdata.misc.BitSetUtil;
 import org.epics.pvdata.misc.BitSetUtilFactory;
 import org.epics.pvdata.monitor.Monitor;
 import org.epics.pvdata.monitor.MonitorElement;
-import org.epics.pvdata.monitor.MonitorQueue;
 import org.epics.pvdata.monitor.MonitorQueueFactory;
 import org.epics.pvdata.monitor.MonitorRequester;
 import org.epics.pvdata.pv.MessageType;
@@ -26,10 +33,14 @@ import org.epics.pvdata.pv.PVStructure;
 import org.epics.pvdata.pv.Status;
 import org.epics.pvdata.pv.Status.StatusType;
 import org.epics.pvdata.pv.StatusCreate;
-import org.epics.pvdatabase.PVListener;
+import org.epics.pvdata.pv.Structure;
+import org.epics.pvdatabase.MemoryEstimator;
+import org.epics.pvdatabase.MemoryFootprint;
+import org.epics.pvdatabase.PVBitSetListener;
 import org.epics.pvdatabase.PVRecord;
 import org.epics.pvdatabase.PVRecordField;
 import org.epics.pvdatabase.PVRecordStructure;
+import org.epics.pvdatabase.TraceBuffer;
 
 /**
  * Creates a monitor for a PVRecord.
@@ -47,6 +58,7 @@ public class MonitorFactory {
      */
     public static Monitor create(PVRecord pvRecord,MonitorRequester monitorRequester,PVStructure pvRequest)
     {
+        if(isShared(pvRequest)) return SharedMonitor.subscribe(pvRecord,monitorRequester,pvRequest);
         MonitorLocal monitor = new MonitorLocal(pvRecord,monitorRequester);
         if(!monitor.init(pvRequest)) {
             monitorRequester.monitorConnect(failedToCreateMonitorStatus, null, null);
@@ -54,7 +66,31 @@ public class MonitorFactory {
         }
         return monitor;
     }
+    /**
+     * Set whether monitors whose pvRequest does not select sharing are shared.
+     * Monitors of the same record with identical pvRequests then share one copy of each update.
+     * A request can also select sharing with record._options.share=true, or refuse it with share=false.
+     * A request with an overflow policy other than conflate is never shared.
+     * The default is false. It only applies to monitors created later.
+     * @param share Share monitors or not.
+     */
+    public static void setShareMonitors(boolean share)
+    {
+        shareMonitors = share;
+    }
+
+    private static boolean isShared(PVStructure pvRequest)
+    {
+        PVStructure pvOptions = pvRequest.getSubField(PVStructure.class,"record._options");
+        if(pvOptions==null) return shareMonitors;
+        PVString pvString = pvOptions.getSubField(PVString.class, "overflow");
+        if(pvString!=null && !pvString.get().equals(MonitorOverflow.Policy.conflate.name())) return false;
+        pvString = pvOptions.getSubField(PVString.class, "share");
+        if(pvString==null) return shareMonitors;
+        return Boolean.parseBoolean(pvString.get());
+    }
 
+    private static volatile boolean shareMonitors = false;
 
     private static final StatusCreate statusCreate = StatusFactory.getStatusCreate();
     private static final Status okStatus = statusCreate.getStatusOK();
@@ -62,23 +98,100 @@ public class MonitorFactory {
     private static final Status wasDestroyedStatus = statusCreate.createStatus(StatusType.ERROR,"was destroyed",null);
     private static final Status alreadyStartedStatus = statusCreate.createStatus(StatusType.WARNING,"already started",null);
     private static final Status notStartedStatus = statusCreate.createStatus(StatusType.WARNING,"not started",null);
+    private static final Status elementsNotReleasedStatus = statusCreate.createStatus(StatusType.ERROR,"monitor elements were not released",null);
     private static final BitSetUtil bitSetUtil = BitSetUtilFactory.getCompressBitSet();
+    // delivers changes held by a MonitorFilter.
+    private static final ScheduledThreadPoolExecutor filterTimer = new ScheduledThreadPoolExecutor(1,new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,"monitorFilter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
 
 
-    private static class MonitorLocal implements Monitor, PVListener {
+    /**
+     * Bounded single producer ring of monitor elements.
+     * An element is handed from the producer to a consumer by the ordered write of tail
+     * and back by head, so neither side ever locks or blocks.
+     * head is advanced by compareAndSet so that the producer can also poll, for dropOldest.
+     */
+    private static final class ElementRing {
+        private final MonitorElement[] buffer;
+        private final int mask;
+        // next index to poll.
+        private final AtomicLong head = new AtomicLong(0);
+        // next index to offer. Only written by the producer.
+        private final AtomicLong tail = new AtomicLong(0);
+
+        private ElementRing(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2,capacity)-1)<<1;
+            buffer = new MonitorElement[size];
+            mask = size - 1;
+        }
+
+        // called only by the producer.
+        private boolean offer(MonitorElement element) {
+            long t = tail.get();
+            if(t - head.get() >= buffer.length) return false;
+            buffer[(int)t & mask] = element;
+            tail.lazySet(t + 1);
+            return true;
+        }
+
+        // a slot is only written after head has passed it, so the element read is valid if the CAS succeeds.
+        private MonitorElement poll() {
+            while(true) {
+                long h = head.get();
+                if(h >= tail.get()) return null;
+                MonitorElement element = buffer[(int)h & mask];
+                if(head.compareAndSet(h,h + 1)) return element;
+            }
+        }
+    }
+
+    private static class MonitorLocal implements Monitor, PVBitSetListener, MemoryFootprint, MonitorOverflow {
 
         enum MonitorState {idle,active,destroyed}
 
         private final MonitorRequester monitorRequester;
         private final PVRecord pvRecord;
-        private MonitorState state = MonitorState.idle;
+        private volatile MonitorState state = MonitorState.idle;
         private PVCopy pvCopy = null;
-        private MonitorQueue queue = null;
+        private MonitorElement[] elements = null;
+        // record to client: the producer is the thread that holds the record lock.
+        // It is also a consumer for dropOldest.
+        private volatile ElementRing usedRing = null;
+        // client to record: the consumer is the thread that holds the record lock.
+        private volatile ElementRing freeRing = null;
         private MonitorElement activeElement = null;
+        // indexed by master offset: the copy offset or -1 if not in the copy.
+        private int[] masterToCopy = null;
+        // indexed by master offset: the next field offset of the master field.
+        private int[] masterNextOffset = null;
+        private MonitorFilter[] filters = null;
+        // not null if this is the source of a SharedMonitor.
+        private SharedMonitor shared = null;
+        // for a shared source, indexed as elements: the fields changed since the element was last copied.
+        private BitSet[] staleBitSets = null;
+        private Policy overflowPolicy = Policy.conflate;
+        private long blockTimeout = 100000000L;
+        // the producer waiting in block, unparked by release.
+        private volatile Thread blockedProducer = null;
+        // only written with the record locked.
+        private volatile long numberConflated = 0;
+        private volatile long numberDropped = 0;
+        private volatile long numberBlocked = 0;
+        private volatile long numberBlockTimeouts = 0;
+        private volatile long blockedNanos = 0;
 
+        // following are only used with the record locked.
         private boolean isGroupPut = false;
         private boolean dataChanged = false;
+        // a filter holds changes and releaseActiveElement is scheduled.
+        private boolean releasePending = false;
+        // guards changes of state.
         private ReentrantLock lock = new ReentrantLock();
 
 
@@ -91,7 +204,7 @@ public class MonitorFactory {
          * @see org.epics.pvdata.misc.Destroyable#destroy()
          */
         public void destroy() {
-            if(pvRecord.getTraceLevel()>0)
+            if(pvRecord.trace(1,TraceBuffer.MONITOR_DESTROY))
             {
                 System.out.println("MonitorLocal::destroy state " + state);    
             }
@@ -115,7 +228,7 @@ public class MonitorFactory {
          * @see org.epics.pvdata.monitor.Monitor#start()
          */
         public Status start() {
-            if(pvRecord.getTraceLevel()>0)
+            if(pvRecord.trace(1,TraceBuffer.MONITOR_START))
             {
                 System.out.println("MonitorLocal::start state " + state);    
             }
@@ -128,23 +241,45 @@ public class MonitorFactory {
                 lock.unlock();
             }
             pvRecord.addListener(this,pvCopy);
+            boolean started = false;
             pvRecord.lock();
             try {
                 lock.lock();
                 try {
-                    state = MonitorState.active;
-                    queue.clear();
+                    // as for MonitorQueue.clear, elements polled before stop must be released before start.
+                    ElementRing free = new ElementRing(elements.length);
+                    MonitorElement active = null;
+                    for(int i=0; i<elements.length; i++) {
+                        // changes were not tracked while stopped, so an element is copied in full the next time it is used.
+                        if(staleBitSets!=null) {
+                            staleBitSets[i].clear();
+                            staleBitSets[i].set(0);
+                        }
+                        // a shared element can still be held by a subscriber.
+                        if(shared!=null && !shared.reclaim(elements[i])) continue;
+                        if(active==null) {
+                            active = elements[i];
+                        } else {
+                            free.offer(elements[i]);
+                        }
+                    }
+                    if(active==null) return elementsNotReleasedStatus;
+                    freeRing = free;
+                    usedRing = new ElementRing(elements.length);
                     isGroupPut = false;
-                    activeElement = queue.getFree();
+                    activeElement = active;
+                    state = MonitorState.active;
                     activeElement.getChangedBitSet().clear();
                     activeElement.getOverrunBitSet().clear();
                     activeElement.getChangedBitSet().set(0);
+                    started = true;
                     releaseActiveElement();
                 } finally {
                     lock.unlock();
                 }
             } finally {
                 pvRecord.unlock();
+                if(!started) pvRecord.removeListener(this,pvCopy);
             }
             return okStatus;
         }
@@ -153,7 +288,7 @@ public class MonitorFactory {
          * @see org.epics.pvdata.monitor.Monitor#stop()
          */
         public Status stop() {
-            if(pvRecord.getTraceLevel()>0)
+            if(pvRecord.trace(1,TraceBuffer.MONITOR_STOP))
             {
                 System.out.println("MonitorLocal::stop state " + state);    
             }
@@ -172,101 +307,205 @@ public class MonitorFactory {
          * @see org.epics.pvdata.monitor.Monitor#poll()
          */
         public MonitorElement poll() {
-            if(pvRecord.getTraceLevel()>1)
+            if(pvRecord.trace(2,TraceBuffer.MONITOR_POLL))
             {
                 System.out.println("MonitorLocal::poll state " + state);    
             }
-            synchronized(queue) {
-                if(state!=MonitorState.active) return null;
-                return queue.getUsed();
-            }
+            if(state!=MonitorState.active) return null;
+            return usedRing.poll();
         }
         /* (non-Javadoc)
          * @see org.epics.pvdata.monitor.Monitor#release(org.epics.pvdata.monitor.MonitorElement)
          */
         public void release(MonitorElement currentElement) {
-            if(pvRecord.getTraceLevel()>1)
+            if(pvRecord.trace(2,TraceBuffer.MONITOR_RELEASE))
             {
                 System.out.println("MonitorLocal::release state " + state);    
             }
-            synchronized(queue) {
-                if(state!=MonitorState.active) return;
-                queue.releaseUsed(currentElement);
-            }
+            if(state!=MonitorState.active) return;
+            freeRing.offer(currentElement);
+            Thread producer = blockedProducer;
+            if(producer!=null) LockSupport.unpark(producer);
         }
 
         private void releaseActiveElement() {
-            if(pvRecord.getTraceLevel()>1)
+            if(pvRecord.trace(2,TraceBuffer.MONITOR_RELEASE_ACTIVE))
             {
                 System.out.println("MonitorLocal::releaseActiveElement state " + state);    
             }
-            synchronized(queue) {
-                if(state!=MonitorState.active) return;
+            // called with the record locked, so this is the only producer.
+            if(state!=MonitorState.active) return;
+            if(filters.length>0) {
+                BitSet changedBitSet = activeElement.getChangedBitSet();
+                long delay = 0;
+                for(int i=0; i<filters.length; i++) {
+                    delay = Math.max(delay,filters[i].filter(changedBitSet));
+                }
+                activeElement.getOverrunBitSet().and(changedBitSet);
+                if(changedBitSet.nextSetBit(0)<0) return;
+                if(delay>0) {
+                    scheduleRelease(delay);
+                    return;
+                }
+            }
+            if(activeElement.getChangedBitSet().nextSetBit(0)<0) return;
+            MonitorElement newActive = freeRing.poll();
+            if(newActive==null) newActive = overflow();
+            // conflate: changes accumulate as overruns and are copied when an element is free.
+            if(newActive==null) return;
+            if(staleBitSets==null) {
                 pvCopy.updateCopyFromBitSet(activeElement.getPVStructure(), activeElement.getChangedBitSet());
-                if(activeElement.getChangedBitSet().nextSetBit(0)<0) return;
-                MonitorElement newActive = queue.getFree();
-                if(newActive==null) return;
-                bitSetUtil.compress(activeElement.getChangedBitSet(),activeElement.getPVStructure());
-                bitSetUtil.compress(activeElement.getOverrunBitSet(),activeElement.getPVStructure());
-                queue.setUsed(activeElement);
-                activeElement = newActive;
-                activeElement.getChangedBitSet().clear();
-                activeElement.getOverrunBitSet().clear();
+            } else {
+                // shared elements are complete, so a subscriber can skip elements.
+                BitSet changedBitSet = activeElement.getChangedBitSet();
+                for(int i=0; i<elements.length; i++) {
+                    if(elements[i]!=activeElement) {
+                        staleBitSets[i].or(changedBitSet);
+                        continue;
+                    }
+                    staleBitSets[i].or(changedBitSet);
+                    pvCopy.updateCopyFromBitSet(activeElement.getPVStructure(), staleBitSets[i]);
+                    staleBitSets[i].clear();
+                }
             }
+            // before compress, so that the filters see the offsets of the fields they watch.
+            for(int i=0; i<filters.length; i++) filters[i].delivered(activeElement.getChangedBitSet());
+            bitSetUtil.compress(activeElement.getChangedBitSet(),activeElement.getPVStructure());
+            bitSetUtil.compress(activeElement.getOverrunBitSet(),activeElement.getPVStructure());
+            // there are never more elements than the capacity, so this succeeds.
+            usedRing.offer(activeElement);
+            activeElement = newActive;
+            activeElement.getChangedBitSet().clear();
+            activeElement.getOverrunBitSet().clear();
             monitorRequester.monitorEvent(this);
             return;
         }	
 
-
-        @Override
-        public void dataPut(PVRecordField pvRecordField) {
-            if(pvRecord.getTraceLevel()>1) {
-                System.out.println("PVCopyMonitor::dataPut(pvRecordField)");
+        // called with the record locked when no element is free.
+        private MonitorElement overflow() {
+            if(shared!=null) {
+                MonitorElement element = shared.reclaim();
+                // every element is held by subscribers: add one rather than hold back the others.
+                if(element==null) element = shared.grow();
+                if(element!=null) return element;
             }
-            if(state!=MonitorState.active) return;
-            lock.lock();
-            try {
-                int offset = pvCopy.getCopyOffset(pvRecordField.getPVField());
+            switch(overflowPolicy) {
+            case dropOldest: {
+                MonitorElement oldest = usedRing.poll();
+                // the client polled it meanwhile, so an element may be free again.
+                if(oldest==null) oldest = freeRing.poll();
+                if(oldest==null) break;
                 BitSet changedBitSet = activeElement.getChangedBitSet();
                 BitSet overrunBitSet = activeElement.getOverrunBitSet();
-                boolean isSet = changedBitSet.get(offset);
-                changedBitSet.set(offset);;
-                if(isSet) overrunBitSet.set(offset);
-                dataChanged = true;
-            } finally {
-                lock.unlock();
+                BitSet droppedBitSet = oldest.getChangedBitSet();
+                overrunBitSet.or(oldest.getOverrunBitSet());
+                for(int offset=droppedBitSet.nextSetBit(0); offset>=0; offset=droppedBitSet.nextSetBit(offset+1)) {
+                    if(changedBitSet.get(offset)) overrunBitSet.set(offset);
+                    changedBitSet.set(offset);
+                }
+                ++numberDropped;
+                return oldest;
             }
-            if(!isGroupPut) {
-                releaseActiveElement();
-                dataChanged = false;
+            case block: {
+                long start = System.nanoTime();
+                long deadline = start + blockTimeout;
+                MonitorElement element = null;
+                blockedProducer = Thread.currentThread();
+                try {
+                    while(true) {
+                        element = freeRing.poll();
+                        long now = System.nanoTime();
+                        if(element!=null || now>=deadline || state!=MonitorState.active) break;
+                        LockSupport.parkNanos(this,deadline - now);
+                    }
+                } finally {
+                    blockedProducer = null;
+                }
+                ++numberBlocked;
+                blockedNanos += System.nanoTime() - start;
+                if(element!=null) return element;
+                ++numberBlockTimeouts;
+                break;
+            }
+            default:
+                break;
             }
+            ++numberConflated;
+            return null;
+        }
+
+        // called with the record locked by a shared source that needs another element.
+        private MonitorElement addElement() {
+            MonitorElement element = MonitorQueueFactory.createMonitorElement(pvCopy.createPVStructure());
+            int length = elements.length;
+            MonitorElement[] newElements = new MonitorElement[length + 1];
+            System.arraycopy(elements,0,newElements,0,length);
+            newElements[length] = element;
+            BitSet[] newStaleBitSets = new BitSet[length + 1];
+            System.arraycopy(staleBitSets,0,newStaleBitSets,0,length);
+            newStaleBitSets[length] = new BitSet(element.getPVStructure().getNumberFields());
+            newStaleBitSets[length].set(0);
+            elements = newElements;
+            staleBitSets = newStaleBitSets;
+            return element;
         }
 
+        // called with the record locked.
+        private void scheduleRelease(long delay) {
+            if(releasePending) return;
+            releasePending = true;
+            filterTimer.schedule(new Runnable() {
+                public void run() {
+                    pvRecord.lock();
+                    try {
+                        releasePending = false;
+                        releaseActiveElement();
+                    } finally {
+                        pvRecord.unlock();
+                    }
+                }
+            },delay,TimeUnit.NANOSECONDS);
+        }
+
+        // the monitor is a PVBitSetListener, so changes arrive via dataPut(PVRecord,BitSet).
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVListener#dataPut(org.epics.pvdatabase.PVRecordField)
+         */
+        @Override
+        public void dataPut(PVRecordField pvRecordField) {}
+
         /* (non-Javadoc)
          * @see org.epics.pvdatabase.PVListener#dataPut(org.epics.pvdatabase.PVRecordStructure, org.epics.pvdatabase.PVRecordField)
          */
         @Override
-        public void dataPut(PVRecordStructure requested,PVRecordField pvRecordField)
+        public void dataPut(PVRecordStructure requested,PVRecordField pvRecordField) {}
+
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVBitSetListener#dataPut(org.epics.pvdatabase.PVRecord, org.epics.pvdata.misc.BitSet)
+         */
+        @Override
+        public void dataPut(PVRecord pvRecord,BitSet masterBitSet)
         {
-            if(pvRecord.getTraceLevel()>1) {
-                System.out.println("PVCopyMonitor::dataPut(requested,pvRecordField)");
+            if(pvRecord.trace(2,TraceBuffer.MONITOR_DATA_PUT)) {
+                System.out.println("PVCopyMonitor::dataPut(pvRecord,bitSet)");
             }
             if(state!=MonitorState.active) return;
-            lock.lock();
-            try {
-                BitSet changedBitSet = activeElement.getChangedBitSet();
-                BitSet overrunBitSet = activeElement.getOverrunBitSet();
-                int offsetCopyRequested = pvCopy.getCopyOffset(requested.getPVField());
-                int offset = offsetCopyRequested +(pvRecordField.getPVField().getFieldOffset()
-                        - requested.getPVField().getFieldOffset());
-                boolean isSet = changedBitSet.get(offset);
-                changedBitSet.set(offset);;
-                if(isSet) overrunBitSet.set(offset);
-                dataChanged = true;
-            } finally {
-                lock.unlock();
+            boolean changed = false;
+            BitSet changedBitSet = activeElement.getChangedBitSet();
+            BitSet overrunBitSet = activeElement.getOverrunBitSet();
+            for(int offset=masterBitSet.nextSetBit(0); offset>=0; offset=masterBitSet.nextSetBit(offset+1)) {
+                // a structure was posted: all its subfields changed.
+                int next = masterNextOffset[offset];
+                for(int i=offset; i<next; i++) {
+                    int copyOffset = masterToCopy[i];
+                    if(copyOffset<0) continue;
+                    if(changedBitSet.get(copyOffset)) overrunBitSet.set(copyOffset);
+                    changedBitSet.set(copyOffset);
+                    changed = true;
+                }
             }
-            if(!isGroupPut) {
+            if(changed) dataChanged = true;
+            if(changed && !isGroupPut) {
                 releaseActiveElement();
                 dataChanged = false;
             }
@@ -274,31 +513,21 @@ public class MonitorFactory {
 
         @Override
         public void beginGroupPut(PVRecord pvRecord) {
-            if(pvRecord.getTraceLevel()>1) {
+            if(pvRecord.trace(2,TraceBuffer.MONITOR_BEGIN_GROUP_PUT)) {
                 System.out.println("PVCopyMonitor::beginGroupPut");
             }
             if(state!=MonitorState.active) return;
-            lock.lock();
-            try {
-                isGroupPut = true;
-                dataChanged = false;
-            } finally {
-                lock.unlock();
-            }
+            isGroupPut = true;
+            dataChanged = false;
         }
 
         @Override
         public void endGroupPut(PVRecord pvRecord) {
-            if(pvRecord.getTraceLevel()>1) {
+            if(pvRecord.trace(2,TraceBuffer.MONITOR_END_GROUP_PUT)) {
                 System.out.println("PVCopyMonitor::endGroupPut dataChanged " + dataChanged);
             }
             if(state!=MonitorState.active) return;
-            lock.lock();
-            try {
-                isGroupPut = false;
-            } finally {
-                lock.unlock();
-            }
+            isGroupPut = false;
             if(dataChanged) {
                 dataChanged = false;
                 releaseActiveElement();
@@ -309,13 +538,65 @@ public class MonitorFactory {
          * @see org.epics.pvdatabase.PVListener#unlisten(org.epics.pvdatabase.PVRecord)
          */
         public void unlisten(PVRecord pvRecord) {
-            if(pvRecord.getTraceLevel()>1) {
+            if(pvRecord.trace(2,TraceBuffer.MONITOR_UNLISTEN)) {
                 System.out.println("PVCopyMonitor::unlisten");
             }
             monitorRequester.unlisten(this);
             pvRecord.removeListener(this,pvCopy);
         }
 
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.pva.MonitorOverflow#getOverflowPolicy()
+         */
+        public Policy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.pva.MonitorOverflow#getNumberConflated()
+         */
+        public long getNumberConflated() {
+            return numberConflated;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.pva.MonitorOverflow#getNumberDropped()
+         */
+        public long getNumberDropped() {
+            return numberDropped;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.pva.MonitorOverflow#getNumberBlocked()
+         */
+        public long getNumberBlocked() {
+            return numberBlocked;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.pva.MonitorOverflow#getNumberBlockTimeouts()
+         */
+        public long getNumberBlockTimeouts() {
+            return numberBlockTimeouts;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.pva.MonitorOverflow#getBlockedNanos()
+         */
+        public long getBlockedNanos() {
+            return blockedNanos;
+        }
+
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.MemoryFootprint#estimateBytes()
+         */
+        public long estimateBytes() {
+            long bytes = MemoryEstimator.array(masterToCopy.length,4)*2;
+            for(int i=0; i<elements.length; i++) {
+                MonitorElement element = elements[i];
+                bytes += MemoryEstimator.estimate(element.getPVStructure());
+                bytes += MemoryEstimator.estimate(element.getChangedBitSet());
+                bytes += MemoryEstimator.estimate(element.getOverrunBitSet());
+                if(staleBitSets!=null) bytes += MemoryEstimator.estimate(staleBitSets[i]);
+            }
+            return bytes;
+        }
+
         private boolean init(PVStructure pvRequest) {
             PVField pvField = null;
             int queueSize = 2;
@@ -331,6 +612,26 @@ public class MonitorFactory {
                         return false;
                     }
                 }
+                pvString = pvOptions.getSubField(PVString.class, "overflow");
+                if(pvString!=null) {
+                    try {
+                        overflowPolicy = Policy.valueOf(pvString.get());
+                    } catch (IllegalArgumentException e) {
+                        monitorRequester.message("illegal overflow " + pvString.get(), MessageType.error);
+                        return false;
+                    }
+                }
+                pvString = pvOptions.getSubField(PVString.class, "blockTimeout");
+                if(pvString!=null) {
+                    try {
+                        double seconds = Double.parseDouble(pvString.get());
+                        if(seconds<0.0 || Double.isNaN(seconds)) throw new NumberFormatException("negative");
+                        blockTimeout = (long)(seconds*1e9);
+                    } catch (NumberFormatException e) {
+                        monitorRequester.message("blockTimeout " + e.getMessage(), MessageType.error);
+                        return false;
+                    }
+                }
             }
             pvField = pvRequest.getSubField("field");
             if(pvField==null) {
@@ -350,14 +651,511 @@ public class MonitorFactory {
                     return false;
                 }
             }
+            try {
+                filters = MonitorFilterFactory.create(pvRequest,pvCopy);
+            } catch (IllegalArgumentException e) {
+                monitorRequester.message(e.getMessage(), MessageType.error);
+                return false;
+            }
             if(queueSize<2) queueSize = 2;
             MonitorElement[] elementArray = new MonitorElement[queueSize];
             for(int i=0; i<queueSize; ++i) {
                 elementArray[i] = MonitorQueueFactory.createMonitorElement(pvCopy.createPVStructure());
             }
-            queue = MonitorQueueFactory.create(elementArray);
+            elements = elementArray;
+            if(shared!=null) {
+                staleBitSets = new BitSet[queueSize];
+                for(int i=0; i<queueSize; ++i) {
+                    staleBitSets[i] = new BitSet(elementArray[i].getPVStructure().getNumberFields());
+                }
+            }
+            PVStructure pvMaster = pvRecord.getPVRecordStructure().getPVStructure();
+            int numberMaster = pvMaster.getNumberFields();
+            masterToCopy = new int[numberMaster];
+            masterNextOffset = new int[numberMaster];
+            for(int i=0; i<numberMaster; i++) {
+                masterToCopy[i] = -1;
+                masterNextOffset[i] = pvMaster.getSubField(i).getNextFieldOffset();
+            }
+            int numberCopy = elementArray[0].getPVStructure().getNumberFields();
+            for(int i=0; i<numberCopy; i++) {
+                masterToCopy[pvCopy.getMasterPVField(i).getFieldOffset()] = i;
+            }
             monitorRequester.monitorConnect(okStatus, this, pvCopy.getStructure());
             return true;
         }
     }
+
+    private static final ConcurrentHashMap<SharedKey,SharedMonitor> sharedMap = new ConcurrentHashMap<SharedKey,SharedMonitor>();
+    // guards creating and destroying SharedMonitors. It is taken before SharedMonitor.lock.
+    private static final ReentrantLock sharedLock = new ReentrantLock();
+
+    private static final class SharedKey {
+        private final PVRecord pvRecord;
+        private final String request;
+
+        private SharedKey(PVRecord pvRecord,String request) {
+            this.pvRecord = pvRecord;
+            this.request = request;
+        }
+
+        public boolean equals(Object object) {
+            if(!(object instanceof SharedKey)) return false;
+            SharedKey key = (SharedKey)object;
+            return pvRecord==key.pvRecord && request.equals(key.request);
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(pvRecord)*31 + request.hashCode();
+        }
+    }
+
+    /**
+     * A monitor element of a shared source and its reference count.
+     * refCount is 0 while the source owns the element, 1 when it is published
+     * and 1 more for each subscriber that polled and did not yet release it.
+     * A published element is never written until the source reclaims it, which is only possible at 1.
+     */
+    private static final class Slot {
+        private final MonitorElement element;
+        private final int index;
+        private final AtomicInteger refCount = new AtomicInteger(0);
+        // the sequence number it was published with.
+        private volatile long sequence = -1;
+
+        private Slot(MonitorElement element,int index) {
+            this.element = element;
+            this.index = index;
+        }
+
+        private boolean acquire() {
+            while(true) {
+                int count = refCount.get();
+                if(count<=0) return false;
+                if(refCount.compareAndSet(count,count + 1)) return true;
+            }
+        }
+    }
+
+    /**
+     * The view of a Slot given to one subscriber.
+     * The data is shared, the bit sets belong to the subscriber.
+     */
+    private static final class SharedElement implements MonitorElement {
+        private final PVStructure pvStructure;
+        private final BitSet changedBitSet;
+        private final BitSet overrunBitSet;
+        // the slot while polled. Only used by the subscriber.
+        private Slot slot = null;
+
+        private SharedElement(PVStructure pvStructure) {
+            this.pvStructure = pvStructure;
+            changedBitSet = new BitSet(pvStructure.getNumberFields());
+            overrunBitSet = new BitSet(pvStructure.getNumberFields());
+        }
+
+        public PVStructure getPVStructure() {
+            return pvStructure;
+        }
+
+        public BitSet getChangedBitSet() {
+            return changedBitSet;
+        }
+
+        public BitSet getOverrunBitSet() {
+            return overrunBitSet;
+        }
+    }
+
+    /**
+     * The monitors of a record with identical pvRequests.
+     * One MonitorLocal, the source, listens to the record, runs the filters and copies each update once
+     * into a complete element. The element is published with the next sequence number and
+     * each subscriber polls it, by reference, at its own sequence number.
+     * A subscriber that falls behind skips to the oldest element that was not reclaimed;
+     * that element has bit 0 set in its changed and overrun bit sets.
+     * A subscriber that holds elements never holds back the others:
+     * if no element can be reclaimed the source adds one, up to queueSize per subscriber.
+     */
+    private static class SharedMonitor implements MonitorRequester {
+        private final PVRecord pvRecord;
+        private final SharedKey key;
+        private final MonitorLocal source;
+        private final IdentityHashMap<MonitorElement,Slot> slotMap = new IdentityHashMap<MonitorElement,Slot>();
+        private Slot[] slots = null;
+        // indexed by sequence&mask: the last slot published with the sequence.
+        private Slot[] window = null;
+        private int mask = 0;
+        // the next sequence number. Only written with the record locked.
+        private volatile long published = 0;
+        private Structure structure = null;
+        private MonitorRequester connectRequester = null;
+        private volatile SharedMonitorClient[] clients = new SharedMonitorClient[0];
+        private volatile SharedMonitorClient[] activeClients = new SharedMonitorClient[0];
+        private volatile boolean isDestroyed = false;
+        // guards clients and activeClients.
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private SharedMonitor(PVRecord pvRecord,SharedKey key) {
+            this.pvRecord = pvRecord;
+            this.key = key;
+            source = new MonitorLocal(pvRecord,this);
+            source.shared = this;
+        }
+
+        private static Monitor subscribe(PVRecord pvRecord,MonitorRequester monitorRequester,PVStructure pvRequest)
+        {
+            SharedKey key = new SharedKey(pvRecord,pvRequest.toString());
+            SharedMonitorClient client = null;
+            SharedMonitor shared = null;
+            sharedLock.lock();
+            try {
+                shared = sharedMap.get(key);
+                if(shared==null || shared.isDestroyed) {
+                    shared = new SharedMonitor(pvRecord,key);
+                    shared.connectRequester = monitorRequester;
+                    boolean ok = shared.source.init(pvRequest);
+                    shared.connectRequester = null;
+                    if(!ok) {
+                        monitorRequester.monitorConnect(failedToCreateMonitorStatus, null, null);
+                        return null;
+                    }
+                    shared.createSlots();
+                    sharedMap.put(key,shared);
+                }
+                client = new SharedMonitorClient(shared,monitorRequester);
+                shared.lock.lock();
+                try {
+                    shared.clients = add(shared.clients,client);
+                } finally {
+                    shared.lock.unlock();
+                }
+            } finally {
+                sharedLock.unlock();
+            }
+            monitorRequester.monitorConnect(okStatus, client, shared.structure);
+            return client;
+        }
+
+        private void createSlots() {
+            MonitorElement[] elements = source.elements;
+            slots = new Slot[elements.length];
+            for(int i=0; i<elements.length; i++) {
+                slots[i] = new Slot(elements[i],i);
+                slotMap.put(elements[i],slots[i]);
+            }
+            int size = Integer.highestOneBit(Math.max(2,elements.length)-1)<<1;
+            window = new Slot[size];
+            mask = size - 1;
+        }
+
+        // called with the record locked by the source.
+        private boolean reclaim(MonitorElement element) {
+            Slot slot = slotMap.get(element);
+            return slot.refCount.get()==0 || slot.refCount.compareAndSet(1,0);
+        }
+
+        // called with the record locked by the source when no element can be reclaimed.
+        // Each subscriber can hold at most window.length elements, so with this bound one is always free.
+        private MonitorElement grow() {
+            if(slots.length >= window.length*clients.length + 2) return null;
+            MonitorElement element = source.addElement();
+            Slot slot = new Slot(element,slots.length);
+            Slot[] newSlots = new Slot[slots.length + 1];
+            System.arraycopy(slots,0,newSlots,0,slots.length);
+            newSlots[slots.length] = slot;
+            slots = newSlots;
+            slotMap.put(element,slot);
+            return element;
+        }
+
+        // called with the record locked by the source when no element is free: reclaim the oldest unused element.
+        private MonitorElement reclaim() {
+            while(true) {
+                Slot oldest = null;
+                for(int i=0; i<slots.length; i++) {
+                    Slot slot = slots[i];
+                    if(slot.refCount.get()!=1) continue;
+                    if(oldest==null || slot.sequence<oldest.sequence) oldest = slot;
+                }
+                if(oldest==null) return null;
+                // else a subscriber polled it meanwhile.
+                if(oldest.refCount.compareAndSet(1,0)) return oldest.element;
+            }
+        }
+
+        // called with the record locked.
+        private void publish(MonitorElement element) {
+            Slot slot = slotMap.get(element);
+            long sequence = published;
+            slot.sequence = sequence;
+            slot.refCount.set(1);
+            window[(int)sequence & mask] = slot;
+            published = sequence + 1;
+        }
+
+        private static SharedMonitorClient[] add(SharedMonitorClient[] clients,SharedMonitorClient client) {
+            SharedMonitorClient[] result = new SharedMonitorClient[clients.length + 1];
+            System.arraycopy(clients,0,result,0,clients.length);
+            result[clients.length] = client;
+            return result;
+        }
+
+        private static SharedMonitorClient[] remove(SharedMonitorClient[] clients,SharedMonitorClient client) {
+            for(int i=0; i<clients.length; i++) {
+                if(clients[i]!=client) continue;
+                SharedMonitorClient[] result = new SharedMonitorClient[clients.length - 1];
+                System.arraycopy(clients,0,result,0,i);
+                System.arraycopy(clients,i + 1,result,i,clients.length - i - 1);
+                return result;
+            }
+            return clients;
+        }
+
+        /* (non-Javadoc)
+         * @see org.epics.pvdata.pv.Requester#getRequesterName()
+         */
+        public String getRequesterName() {
+            return "sharedMonitor " + pvRecord.getRecordName();
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdata.pv.Requester#message(java.lang.String, org.epics.pvdata.pv.MessageType)
+         */
+        public void message(String message,MessageType messageType) {
+            MonitorRequester requester = connectRequester;
+            if(requester!=null) {
+                requester.message(message,messageType);
+                return;
+            }
+            SharedMonitorClient[] clients = this.clients;
+            for(int i=0; i<clients.length; i++) clients[i].monitorRequester.message(message,messageType);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdata.monitor.MonitorRequester#monitorConnect(org.epics.pvdata.pv.Status, org.epics.pvdata.monitor.Monitor, org.epics.pvdata.pv.Structure)
+         */
+        public void monitorConnect(Status status,Monitor monitor,Structure structure) {
+            this.structure = structure;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdata.monitor.MonitorRequester#monitorEvent(org.epics.pvdata.monitor.Monitor)
+         */
+        public void monitorEvent(Monitor monitor) {
+            // called by the source with the record locked.
+            MonitorElement element;
+            while((element = source.poll())!=null) publish(element);
+            SharedMonitorClient[] clients = activeClients;
+            for(int i=0; i<clients.length; i++) clients[i].monitorRequester.monitorEvent(clients[i]);
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdata.monitor.MonitorRequester#unlisten(org.epics.pvdata.monitor.Monitor)
+         */
+        public void unlisten(Monitor monitor) {
+            isDestroyed = true;
+            sharedMap.remove(key,this);
+            SharedMonitorClient[] clients = this.clients;
+            for(int i=0; i<clients.length; i++) clients[i].monitorRequester.unlisten(clients[i]);
+        }
+    }
+
+    private static class SharedMonitorClient implements Monitor, MonitorOverflow {
+
+        enum MonitorState {idle,active,destroyed}
+
+        private final SharedMonitor shared;
+        private final MonitorRequester monitorRequester;
+        // indexed by Slot.index. Only used by poll.
+        private SharedElement[] views = new SharedElement[0];
+        private volatile MonitorState state = MonitorState.idle;
+        private volatile long numberSkipped = 0;
+        // following are only used by poll.
+        private long next = 0;
+        private boolean isSkipped = false;
+
+        private SharedMonitorClient(SharedMonitor shared,MonitorRequester monitorRequester) {
+            this.shared = shared;
+            this.monitorRequester = monitorRequester;
+        }
+
+        /* (non-Javadoc)
+         * @see org.epics.pvdata.misc.Destroyable#destroy()
+         */
+        public void destroy() {
+            sharedLock.lock();
+            try {
+                shared.lock.lock();
+                try {
+                    if(state==MonitorState.destroyed) return;
+                    if(state==MonitorState.active) stop();
+                    state = MonitorState.destroyed;
+                    shared.clients = SharedMonitor.remove(shared.clients,this);
+                    if(shared.clients.length>0) return;
+                    shared.isDestroyed = true;
+                    sharedMap.remove(shared.key,shared);
+                } finally {
+                    shared.lock.unlock();
+                }
+                shared.source.destroy();
+            } finally {
+                sharedLock.unlock();
+            }
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdata.monitor.Monitor#start()
+         */
+        public Status start() {
+            boolean isFirst = false;
+            shared.lock.lock();
+            try {
+                if(state==MonitorState.destroyed) return wasDestroyedStatus;
+                if(state==MonitorState.active) return alreadyStartedStatus;
+                isFirst = shared.activeClients.length==0;
+                shared.pvRecord.lock();
+                try {
+                    // the first poll gets the whole structure.
+                    if(isFirst) {
+                        next = shared.published;
+                        isSkipped = false;
+                    } else {
+                        next = Math.max(0,shared.published - 1);
+                        isSkipped = true;
+                    }
+                    shared.activeClients = SharedMonitor.add(shared.activeClients,this);
+                    state = MonitorState.active;
+                } finally {
+                    shared.pvRecord.unlock();
+                }
+                if(isFirst) {
+                    Status status = shared.source.start();
+                    if(!status.isSuccess()) {
+                        shared.activeClients = SharedMonitor.remove(shared.activeClients,this);
+                        state = MonitorState.idle;
+                        return status;
+                    }
+                }
+            } finally {
+                shared.lock.unlock();
+            }
+            if(!isFirst) monitorRequester.monitorEvent(this);
+            return okStatus;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdata.monitor.Monitor#stop()
+         */
+        public Status stop() {
+            shared.lock.lock();
+            try {
+                if(state==MonitorState.destroyed) return wasDestroyedStatus;
+                if(state==MonitorState.idle) return notStartedStatus;
+                state = MonitorState.idle;
+                shared.activeClients = SharedMonitor.remove(shared.activeClients,this);
+                if(shared.activeClients.length==0) shared.source.stop();
+            } finally {
+                shared.lock.unlock();
+            }
+            return okStatus;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdata.monitor.Monitor#poll()
+         */
+        public MonitorElement poll() {
+            if(state!=MonitorState.active) return null;
+            while(true) {
+                long published = shared.published;
+                if(next>=published) return null;
+                Slot[] window = shared.window;
+                if(published - next > window.length) {
+                    skip(published - window.length - next);
+                }
+                Slot slot = window[(int)next & shared.mask];
+                if(slot==null || slot.sequence!=next || !slot.acquire()) {
+                    skip(1);
+                    continue;
+                }
+                // reclaimed and published again before acquire.
+                if(slot.sequence!=next) {
+                    slot.refCount.decrementAndGet();
+                    skip(1);
+                    continue;
+                }
+                SharedElement view = getView(slot);
+                view.slot = slot;
+                view.changedBitSet.clear();
+                view.changedBitSet.or(slot.element.getChangedBitSet());
+                view.overrunBitSet.clear();
+                view.overrunBitSet.or(slot.element.getOverrunBitSet());
+                if(isSkipped) {
+                    view.changedBitSet.set(0);
+                    view.overrunBitSet.set(0);
+                    isSkipped = false;
+                }
+                ++next;
+                return view;
+            }
+        }
+
+        // the source adds elements when subscribers hold all of them.
+        private SharedElement getView(Slot slot) {
+            if(slot.index>=views.length) {
+                SharedElement[] newViews = new SharedElement[slot.index + 1];
+                System.arraycopy(views,0,newViews,0,views.length);
+                views = newViews;
+            }
+            if(views[slot.index]==null) views[slot.index] = new SharedElement(slot.element.getPVStructure());
+            return views[slot.index];
+        }
+
+        private void skip(long number) {
+            next += number;
+            numberSkipped += number;
+            isSkipped = true;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdata.monitor.Monitor#release(org.epics.pvdata.monitor.MonitorElement)
+         */
+        public void release(MonitorElement monitorElement) {
+            // also after stop, so that the source can reclaim the element.
+            if(!(monitorElement instanceof SharedElement)) return;
+            SharedElement view = (SharedElement)monitorElement;
+            Slot slot = view.slot;
+            if(slot==null) return;
+            view.slot = null;
+            slot.refCount.decrementAndGet();
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.pva.MonitorOverflow#getOverflowPolicy()
+         */
+        public Policy getOverflowPolicy() {
+            return Policy.conflate;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.pva.MonitorOverflow#getNumberConflated()
+         */
+        public long getNumberConflated() {
+            return shared.source.numberConflated;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.pva.MonitorOverflow#getNumberDropped()
+         */
+        public long getNumberDropped() {
+            return numberSkipped;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.pva.MonitorOverflow#getNumberBlocked()
+         */
+        public long getNumberBlocked() {
+            return 0;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.pva.MonitorOverflow#getNumberBlockTimeouts()
+         */
+        public long getNumberBlockTimeouts() {
+            return 0;
+        }
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.pva.MonitorOverflow#getBlockedNanos()
+         */
+        public long getBlockedNanos() {
+            return 0;
+        }
+    }
 }
@@ -0,0 +1,29 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase.pva;
+
+import org.epics.pvdata.misc.BitSet;
+
+/**
+ * A server side filter of the updates of a monitor.
+ * The filters of a monitor run, in turn, before changes are copied to a monitor element.
+ * All methods are called with the record locked.
+ * See MonitorFilterFactory.
+ */
+public interface MonitorFilter {
+    /**
+     * Filter pending changes.
+     * @param changedBitSet The changed fields, as offsets of the copy. Clear bits to drop changes.
+     * @return 0 to deliver the remaining changes now, or the time in nanoseconds to hold them.
+     * The monitor delivers held changes, together with later changes, when the time has elapsed.
+     */
+    long filter(BitSet changedBitSet);
+    /**
+     * The changes that passed all filters were delivered to the client.
+     * @param changedBitSet The changed fields that were delivered, as offsets of the copy.
+     */
+    void delivered(BitSet changedBitSet);
+}
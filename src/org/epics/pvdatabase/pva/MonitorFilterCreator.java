@@ -0,0 +1,23 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase.pva;
+
+import org.epics.pvdata.copy.PVCopy;
+
+/**
+ * Creates a MonitorFilter for a record._options field of a pvRequest.
+ * See MonitorFilterFactory.register.
+ */
+public interface MonitorFilterCreator {
+    /**
+     * Create a filter for one monitor.
+     * @param value The value of the option.
+     * @param pvCopy The copy of the monitor. getPVMaster is the record data.
+     * @return The filter or null if the filter does not apply to the request, e.g. value is not requested.
+     * @throws IllegalArgumentException If value is not valid. The monitor is not created.
+     */
+    MonitorFilter create(String value,PVCopy pvCopy);
+}
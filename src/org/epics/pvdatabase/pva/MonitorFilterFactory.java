@@ -0,0 +1,251 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase.pva;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.epics.pvdata.copy.PVCopy;
+import org.epics.pvdata.factory.ConvertFactory;
+import org.epics.pvdata.factory.PVDataFactory;
+import org.epics.pvdata.misc.BitSet;
+import org.epics.pvdata.pv.Convert;
+import org.epics.pvdata.pv.PVDataCreate;
+import org.epics.pvdata.pv.PVField;
+import org.epics.pvdata.pv.PVScalar;
+import org.epics.pvdata.pv.PVString;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.Type;
+
+/**
+ * Factory for MonitorFilters.
+ * Filters are selected by the fields of record._options of a monitor pvRequest,
+ * e.g. record[maxRate=2,deadbandAbsolute=0.1]field(value,alarm,timeStamp).
+ * The built in filters are:
+ * <ul>
+ * <li>deadbandAbsolute: an update where value changed by less than the option,
+ * compared to the value last delivered, is dropped.</li>
+ * <li>deadbandRelative: as deadbandAbsolute, but the option is a fraction of the value last delivered.</li>
+ * <li>onChange: if true an update where value equals the value last delivered is dropped.</li>
+ * <li>maxRate: at most this many updates per second are delivered.
+ * Updates in between are combined and the last one is delivered when the interval has elapsed.</li>
+ * </ul>
+ * When an update of value is dropped, the change of timeStamp posted with it is dropped too.
+ * The deadband and onChange filters compare with the value last delivered to the client,
+ * so dropped values never become the reference.
+ * Changes of every other field, e.g. alarm or display, are always delivered.
+ * The value filters only apply to a numeric scalar value field (onChange to any value field)
+ * and are ignored if value is not requested.
+ */
+public class MonitorFilterFactory {
+    /**
+     * Register a filter.
+     * @param optionName The name of the field in record._options.
+     * @param creator The creator.
+     * @return false if a filter is already registered for optionName.
+     */
+    public static boolean register(String optionName,MonitorFilterCreator creator) {
+        return creatorMap.putIfAbsent(optionName,creator)==null;
+    }
+    /**
+     * Create the filters selected by a pvRequest.
+     * @param pvRequest The pvRequest.
+     * @param pvCopy The copy of the monitor.
+     * @return The filters, in the order of the options.
+     * @throws IllegalArgumentException If an option value is not valid.
+     */
+    public static MonitorFilter[] create(PVStructure pvRequest,PVCopy pvCopy) {
+        PVStructure pvOptions = pvRequest.getSubField(PVStructure.class,"record._options");
+        if(pvOptions==null) return emptyFilters;
+        ArrayList<MonitorFilter> filters = new ArrayList<MonitorFilter>();
+        PVField[] pvFields = pvOptions.getPVFields();
+        for(int i=0; i<pvFields.length; i++) {
+            MonitorFilterCreator creator = creatorMap.get(pvFields[i].getFieldName());
+            if(creator==null || !(pvFields[i] instanceof PVString)) continue;
+            MonitorFilter filter = creator.create(((PVString)pvFields[i]).get(),pvCopy);
+            if(filter!=null) filters.add(filter);
+        }
+        return filters.toArray(new MonitorFilter[filters.size()]);
+    }
+
+    private static final MonitorFilter[] emptyFilters = new MonitorFilter[0];
+    private static final Convert convert = ConvertFactory.getConvert();
+    private static final PVDataCreate pvDataCreate = PVDataFactory.getPVDataCreate();
+    private static final ConcurrentHashMap<String,MonitorFilterCreator> creatorMap = new ConcurrentHashMap<String,MonitorFilterCreator>();
+
+    static {
+        register("deadbandAbsolute",new MonitorFilterCreator() {
+            public MonitorFilter create(String value,PVCopy pvCopy) {
+                return Deadband.create(parse("deadbandAbsolute",value),false,pvCopy);
+            }
+        });
+        register("deadbandRelative",new MonitorFilterCreator() {
+            public MonitorFilter create(String value,PVCopy pvCopy) {
+                return Deadband.create(parse("deadbandRelative",value),true,pvCopy);
+            }
+        });
+        register("onChange",new MonitorFilterCreator() {
+            public MonitorFilter create(String value,PVCopy pvCopy) {
+                if(!Boolean.parseBoolean(value)) return null;
+                return OnChange.create(pvCopy);
+            }
+        });
+        register("maxRate",new MonitorFilterCreator() {
+            public MonitorFilter create(String value,PVCopy pvCopy) {
+                double rate = parse("maxRate",value);
+                if(rate<=0.0) return null;
+                return new RateLimit((long)(1e9/rate));
+            }
+        });
+    }
+
+    private static double parse(String optionName,String value) {
+        try {
+            double result = Double.parseDouble(value);
+            if(result<0.0 || Double.isNaN(result)) throw new NumberFormatException("negative");
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(optionName + " " + e.getMessage());
+        }
+    }
+
+    // drops a change of value and of the timeStamp posted with it.
+    private static abstract class ValueFilter implements MonitorFilter {
+        protected final PVField pvValue;
+        // copy offsets.
+        private final int valueOffset;
+        private final int valueNextOffset;
+        private final int timeStampOffset;
+        private final int timeStampNextOffset;
+
+        protected ValueFilter(PVField pvValue,PVCopy pvCopy) {
+            this.pvValue = pvValue;
+            // the copy can hold only some subfields of a structure.
+            PVStructure pvStructure = pvCopy.createPVStructure();
+            valueOffset = pvCopy.getCopyOffset(pvValue);
+            valueNextOffset = pvStructure.getSubField(valueOffset).getNextFieldOffset();
+            PVField pvTimeStamp = pvCopy.getPVMaster().getSubField("timeStamp");
+            int offset = (pvTimeStamp==null) ? -1 : pvCopy.getCopyOffset(pvTimeStamp);
+            timeStampOffset = offset;
+            timeStampNextOffset = (offset<0) ? -1 : pvStructure.getSubField(offset).getNextFieldOffset();
+        }
+
+        // the value field of the master or null if it is not in the copy.
+        protected static PVField findValue(PVCopy pvCopy) {
+            PVField pvValue = pvCopy.getPVMaster().getSubField("value");
+            if(pvValue==null || pvCopy.getCopyOffset(pvValue)<0) return null;
+            return pvValue;
+        }
+
+        // true if the change of value should be dropped.
+        protected abstract boolean isSuppressed();
+
+        // the client received the current value.
+        protected abstract void valueDelivered();
+
+        public long filter(BitSet changedBitSet) {
+            // the whole structure, e.g. the first update, is always delivered.
+            if(changedBitSet.get(0) || !changedBitSet.get(valueOffset)) return 0;
+            if(!isSuppressed()) return 0;
+            changedBitSet.clear(valueOffset,valueNextOffset);
+            if(timeStampOffset>=0) changedBitSet.clear(timeStampOffset,timeStampNextOffset);
+            return 0;
+        }
+
+        public void delivered(BitSet changedBitSet) {
+            // a suppressed value was not delivered, so it must not become the reference.
+            if(changedBitSet.get(0)) {
+                valueDelivered();
+                return;
+            }
+            int offset = changedBitSet.nextSetBit(valueOffset);
+            if(offset>=0 && offset<valueNextOffset) valueDelivered();
+        }
+    }
+
+    private static class Deadband extends ValueFilter {
+        private final PVScalar pvScalar;
+        private final double deadband;
+        private final boolean isRelative;
+        private boolean isDelivered = false;
+        private double lastValue = 0.0;
+
+        static Deadband create(double deadband,boolean isRelative,PVCopy pvCopy) {
+            PVField pvValue = findValue(pvCopy);
+            if(pvValue==null || pvValue.getField().getType()!=Type.scalar) return null;
+            PVScalar pvScalar = (PVScalar)pvValue;
+            ScalarType scalarType = pvScalar.getScalar().getScalarType();
+            if(scalarType==ScalarType.pvString || scalarType==ScalarType.pvBoolean) return null;
+            return new Deadband(pvScalar,deadband,isRelative,pvCopy);
+        }
+
+        private Deadband(PVScalar pvScalar,double deadband,boolean isRelative,PVCopy pvCopy) {
+            super(pvScalar,pvCopy);
+            this.pvScalar = pvScalar;
+            this.deadband = deadband;
+            this.isRelative = isRelative;
+        }
+
+        protected boolean isSuppressed() {
+            if(!isDelivered) return false;
+            double limit = isRelative ? deadband*Math.abs(lastValue) : deadband;
+            return Math.abs(convert.toDouble(pvScalar) - lastValue) < limit;
+        }
+
+        protected void valueDelivered() {
+            isDelivered = true;
+            lastValue = convert.toDouble(pvScalar);
+        }
+    }
+
+    private static class OnChange extends ValueFilter {
+        // the value last delivered.
+        private final PVField pvLast;
+        private boolean isDelivered = false;
+
+        static OnChange create(PVCopy pvCopy) {
+            PVField pvValue = findValue(pvCopy);
+            if(pvValue==null) return null;
+            return new OnChange(pvValue,pvCopy);
+        }
+
+        private OnChange(PVField pvValue,PVCopy pvCopy) {
+            super(pvValue,pvCopy);
+            pvLast = pvDataCreate.createPVField(pvValue.getField());
+        }
+
+        protected boolean isSuppressed() {
+            return isDelivered && pvValue.equals(pvLast);
+        }
+
+        protected void valueDelivered() {
+            isDelivered = true;
+            convert.copy(pvValue,pvLast);
+        }
+    }
+
+    private static class RateLimit implements MonitorFilter {
+        private final long interval;
+        private boolean isDelivered = false;
+        private long lastDelivered = 0;
+
+        private RateLimit(long interval) {
+            this.interval = interval;
+        }
+
+        public long filter(BitSet changedBitSet) {
+            if(!isDelivered) return 0;
+            long elapsed = System.nanoTime() - lastDelivered;
+            return (elapsed>=interval) ? 0 : interval - elapsed;
+        }
+
+        public void delivered(BitSet changedBitSet) {
+            isDelivered = true;
+            lastDelivered = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase.pva;
+
+/**
+ * The overflow policy of a monitor and its counters.
+ * A monitor overflows when the record changes while every element of its queue
+ * is waiting to be polled or released by the client.
+ * The policy is selected by record._options.overflow of the pvRequest, e.g.
+ * record[queueSize=4,overflow=dropOldest]field(value).
+ * The Monitor returned by MonitorFactory.create implements this interface.
+ */
+public interface MonitorOverflow {
+    /**
+     * The overflow policies.
+     */
+    enum Policy {
+        /**
+         * Changes are merged into the newest, not yet queued, element and flagged as overruns.
+         * This is the default. It uses the least memory and the client always gets the latest values.
+         */
+        conflate,
+        /**
+         * The oldest queued element is taken back from the client and reused.
+         * Its changes are merged into the newest element, so no field is missed, only intermediate values.
+         */
+        dropOldest,
+        /**
+         * The thread that puts to the record waits for the client to release an element,
+         * at most record._options.blockTimeout seconds, default 0.1, and then conflates.
+         * The record stays locked while it waits.
+         */
+        block
+    }
+    /**
+     * @return The policy.
+     */
+    Policy getOverflowPolicy();
+    /**
+     * @return The number of updates merged into the newest element.
+     */
+    long getNumberConflated();
+    /**
+     * @return The number of queued elements dropped by dropOldest.
+     */
+    long getNumberDropped();
+    /**
+     * @return The number of times block waited for the client.
+     */
+    long getNumberBlocked();
+    /**
+     * @return The number of times block gave up and conflated.
+     */
+    long getNumberBlockTimeouts();
+    /**
+     * @return The total time block waited, in nanoseconds.
+     */
+    long getBlockedNanos();
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase.scan;
+
+import org.epics.pvdatabase.PVRecord;
+
+/**
+ * Process records periodically.
+ * All records with the same period are processed on each tick.
+ * A large set of records is split into chunks that are processed in parallel by the threads of the scanner.
+ * If the chunks of a tick are still processing when the next tick is due, that tick is skipped and counted as an overrun.
+ * A record is removed automatically when it is destroyed.
+ */
+public interface PeriodicScanner {
+    /**
+     * Add a record.
+     * @param pvRecord The record.
+     * @param period The scan period in seconds.
+     * @return false if the record is already scanned, the period is not positive,
+     * the record was destroyed, or the scanner was destroyed.
+     */
+    boolean addRecord(PVRecord pvRecord,double period);
+    /**
+     * Remove a record.
+     * @param pvRecord The record.
+     * @return false if the record was not scanned.
+     */
+    boolean removeRecord(PVRecord pvRecord);
+    /**
+     * Get the statistics for each period that has records.
+     * @return The array of statistics.
+     */
+    ScanStatistics[] getScanStatistics();
+    /**
+     * Stop scanning and release the threads.
+     */
+    void destroy();
+}
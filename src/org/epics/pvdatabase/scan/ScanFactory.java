@@ -0,0 +1,307 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase.scan;
+
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.epics.pvdatabase.PVRecord;
+import org.epics.pvdatabase.PVRecordClient;
+
+/**
+ * Factory for PeriodicScanner.
+ */
+public class ScanFactory {
+    /**
+     * Get the shared periodic scanner.
+     * It has one thread per available processor.
+     * @return The scanner.
+     */
+    public static synchronized PeriodicScanner getPeriodicScanner() {
+        if(periodicScanner==null) {
+            periodicScanner = new Scanner(Runtime.getRuntime().availableProcessors());
+        }
+        return periodicScanner;
+    }
+    /**
+     * Create a new periodic scanner with its own threads.
+     * @param numberThreads The number of threads.
+     * @return The scanner.
+     */
+    public static PeriodicScanner createPeriodicScanner(int numberThreads) {
+        return new Scanner(numberThreads);
+    }
+
+    private static PeriodicScanner periodicScanner = null;
+    private static final AtomicInteger numberScanners = new AtomicInteger(0);
+    private static final PVRecord[] emptyRecords = new PVRecord[0];
+    // a period with fewer records is processed by one thread.
+    private static final int minChunkSize = 16;
+
+    private static class Scanner implements PeriodicScanner {
+        private final ScheduledThreadPoolExecutor executor;
+        private final int numberThreads;
+        private final HashMap<Long,ScanList> scanListMap = new HashMap<Long,ScanList>();
+        private final HashMap<PVRecord,ScanList> recordMap = new HashMap<PVRecord,ScanList>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean isDestroyed = false;
+
+        private Scanner(int numberThreads) {
+            final String name = "scan" + numberScanners.getAndIncrement() + "-";
+            this.numberThreads = Math.max(1,numberThreads);
+            executor = new ScheduledThreadPoolExecutor(Math.max(1,numberThreads),new ThreadFactory() {
+                private final AtomicInteger numberThreads = new AtomicInteger(0);
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,name + numberThreads.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+
+        public boolean addRecord(PVRecord pvRecord,double period) {
+            long periodNanos = (long)(period*1e9);
+            if(periodNanos<=0) return false;
+            ScanList scanList;
+            lock.lock();
+            try {
+                if(isDestroyed) return false;
+                if(recordMap.containsKey(pvRecord)) return false;
+                scanList = scanListMap.get(periodNanos);
+                if(scanList==null) {
+                    scanList = new ScanList(this,periodNanos);
+                    scanListMap.put(periodNanos,scanList);
+                    scanList.future = executor.scheduleAtFixedRate(
+                            scanList,periodNanos,periodNanos,TimeUnit.NANOSECONDS);
+                }
+                recordMap.put(pvRecord,scanList);
+                scanList.add(pvRecord);
+            } finally {
+                lock.unlock();
+            }
+            if(!pvRecord.addPVRecordClient(scanList)) {
+                removeRecord(pvRecord);
+                return false;
+            }
+            return true;
+        }
+
+        public boolean removeRecord(PVRecord pvRecord) {
+            ScanList scanList;
+            lock.lock();
+            try {
+                scanList = recordMap.remove(pvRecord);
+                if(scanList==null) return false;
+                scanList.remove(pvRecord);
+                if(scanList.getNumberRecords()==0) {
+                    scanList.future.cancel(false);
+                    scanListMap.remove(scanList.periodNanos);
+                }
+            } finally {
+                lock.unlock();
+            }
+            pvRecord.removePVRecordClient(scanList);
+            return true;
+        }
+
+        public ScanStatistics[] getScanStatistics() {
+            lock.lock();
+            try {
+                return scanListMap.values().toArray(new ScanStatistics[scanListMap.size()]);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void destroy() {
+            PVRecord[] records;
+            lock.lock();
+            try {
+                if(isDestroyed) return;
+                isDestroyed = true;
+                records = recordMap.keySet().toArray(new PVRecord[recordMap.size()]);
+            } finally {
+                lock.unlock();
+            }
+            executor.shutdown();
+            for(int i=0; i<records.length; i++) removeRecord(records[i]);
+        }
+    }
+
+    private static class ScanList implements Runnable, PVRecordClient, ScanStatistics {
+        private final Scanner scanner;
+        private final long periodNanos;
+        private ScheduledFuture<?> future = null;
+        // copy on write. Only changed while scanner.lock is held.
+        private volatile PVRecord[] records = emptyRecords;
+        private long expectedStart;
+        // the chunks of the current tick that did not yet finish.
+        private final AtomicInteger pending = new AtomicInteger(0);
+        // statistics are guarded by this
+        private long numberTicks = 0;
+        private long numberOverruns = 0;
+        private long totalJitter = 0;
+        private long maxJitter = 0;
+        private long lastDuration = 0;
+        private long maxDuration = 0;
+
+        private ScanList(Scanner scanner,long periodNanos) {
+            this.scanner = scanner;
+            this.periodNanos = periodNanos;
+            expectedStart = System.nanoTime() + periodNanos;
+        }
+
+        private void add(PVRecord pvRecord) {
+            PVRecord[] old = records;
+            PVRecord[] xxx = new PVRecord[old.length+1];
+            System.arraycopy(old,0,xxx,0,old.length);
+            xxx[old.length] = pvRecord;
+            records = xxx;
+        }
+
+        private void remove(PVRecord pvRecord) {
+            PVRecord[] old = records;
+            for(int i=0; i<old.length; i++) {
+                if(old[i]!=pvRecord) continue;
+                PVRecord[] xxx = new PVRecord[old.length-1];
+                System.arraycopy(old,0,xxx,0,i);
+                System.arraycopy(old,i+1,xxx,i,old.length-i-1);
+                records = xxx;
+                return;
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+            final long start = System.nanoTime();
+            long delay = start - expectedStart;
+            final long jitter = (delay<0) ? 0 : delay;
+            expectedStart += periodNanos;
+            // the chunks of the previous tick are still processing.
+            if(pending.get()>0) {
+                synchronized(this) {
+                    ++numberOverruns;
+                }
+                return;
+            }
+            // the records are split into chunks that the threads of the scanner process in parallel.
+            final PVRecord[] records = this.records;
+            int numberChunks = Math.max(1,Math.min(scanner.numberThreads,records.length/minChunkSize));
+            int chunkSize = (records.length + numberChunks - 1)/numberChunks;
+            pending.set(numberChunks);
+            for(int i=1; i<numberChunks; i++) {
+                final int from = i*chunkSize;
+                final int to = Math.min(records.length,from + chunkSize);
+                Runnable chunk = new Runnable() {
+                    public void run() {
+                        process(records,from,to);
+                        done(start,jitter);
+                    }
+                };
+                try {
+                    scanner.executor.execute(chunk);
+                } catch (RejectedExecutionException e) {
+                    // the scanner is being destroyed.
+                    chunk.run();
+                }
+            }
+            process(records,0,Math.min(records.length,chunkSize));
+            done(start,jitter);
+        }
+
+        private void process(PVRecord[] records,int from,int to) {
+            for(int i=from; i<to; i++) {
+                PVRecord pvRecord = records[i];
+                try {
+                    pvRecord.lock();
+                    try {
+                        pvRecord.beginGroupPut();
+                        try {
+                            pvRecord.invokeProcess();
+                        } finally {
+                            pvRecord.endGroupPut();
+                        }
+                    } finally {
+                        pvRecord.unlock();
+                    }
+                } catch (Throwable th) {
+                    System.err.println("scan " + pvRecord.getRecordName() + " " + th);
+                }
+            }
+        }
+
+        // the last chunk of a tick to finish updates the statistics.
+        private void done(long start,long jitter) {
+            if(pending.decrementAndGet()>0) return;
+            long duration = System.nanoTime() - start;
+            synchronized(this) {
+                ++numberTicks;
+                if(duration>periodNanos) ++numberOverruns;
+                totalJitter += jitter;
+                if(jitter>maxJitter) maxJitter = jitter;
+                lastDuration = duration;
+                if(duration>maxDuration) maxDuration = duration;
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see org.epics.pvdatabase.PVRecordClient#detach(org.epics.pvdatabase.PVRecord)
+         */
+        public void detach(PVRecord pvRecord) {
+            scanner.removeRecord(pvRecord);
+        }
+
+        public double getPeriod() {
+            return periodNanos/1e9;
+        }
+
+        public int getNumberRecords() {
+            return records.length;
+        }
+
+        public synchronized long getNumberTicks() {
+            return numberTicks;
+        }
+
+        public synchronized long getNumberOverruns() {
+            return numberOverruns;
+        }
+
+        public synchronized double getAverageJitter() {
+            return (numberTicks==0) ? 0.0 : totalJitter/1e9/numberTicks;
+        }
+
+        public synchronized double getMaxJitter() {
+            return maxJitter/1e9;
+        }
+
+        public synchronized double getLastDuration() {
+            return lastDuration/1e9;
+        }
+
+        public synchronized double getMaxDuration() {
+            return maxDuration/1e9;
+        }
+
+        public synchronized void reset() {
+            numberTicks = 0;
+            numberOverruns = 0;
+            totalJitter = 0;
+            maxJitter = 0;
+            lastDuration = 0;
+            maxDuration = 0;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase.scan;
+
+/**
+ * Timing of the ticks of one scan period.
+ * Jitter is the delay between the time a tick should start and the time it does start.
+ * An overrun is a tick that takes longer than the period.
+ */
+public interface ScanStatistics {
+    /**
+     * Get the scan period.
+     * @return The period in seconds.
+     */
+    double getPeriod();
+    /**
+     * Get the number of records scanned with this period.
+     * @return The number.
+     */
+    int getNumberRecords();
+    /**
+     * Get the number of ticks.
+     * @return The number.
+     */
+    long getNumberTicks();
+    /**
+     * Get the number of overruns: ticks that took longer than the period, or were skipped because the previous tick was still processing.
+     * @return The number.
+     */
+    long getNumberOverruns();
+    /**
+     * Get the average jitter.
+     * @return The jitter in seconds.
+     */
+    double getAverageJitter();
+    /**
+     * Get the maximum jitter.
+     * @return The jitter in seconds.
+     */
+    double getMaxJitter();
+    /**
+     * Get the duration of the last tick.
+     * @return The duration in seconds.
+     */
+    double getLastDuration();
+    /**
+     * Get the maximum duration of a tick.
+     * @return The duration in seconds.
+     */
+    double getMaxDuration();
+    /**
+     * Clear the statistics.
+     */
+    void reset();
+}
@@ -0,0 +1,13 @@
+/**
+ * Periodic scanning of PVRecords.
+ * On each tick the records with the same scan period are split into chunks,
+ * of at least 16 records and at most one per thread of the scanner,
+ * and the chunks are processed in parallel by a shared pool of threads.
+ * Within a chunk records are processed in the order they were added.
+ * There is no ordering between chunks, so records of the same period may be processed
+ * in any order or at the same time.
+ * A tick starts only after every chunk of the previous tick of that period has finished;
+ * otherwise the tick is skipped and counted as an overrun.
+ */
+
+package org.epics.pvdatabase.scan;
@@ -0,0 +1,80 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase;
+
+import org.epics.pvdata.copy.CreateRequest;
+import org.epics.pvdata.copy.PVCopy;
+import org.epics.pvdata.copy.PVCopyFactory;
+import org.epics.pvdata.factory.FieldFactory;
+import org.epics.pvdata.factory.PVDataFactory;
+import org.epics.pvdata.pv.PVDouble;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.ScalarType;
+
+/**
+ * Measure the cost of a put to a record field with 1, 10, 100 and 1000 listeners.
+ * Each put is lock, beginGroupPut, put, endGroupPut, unlock, i.e. what process does.
+ * It is in the test tree, so it is not in the jar. Run it from the test classpath via:
+ * java -cp ... org.epics.pvdatabase.PostPutBenchmark [numberPuts]
+ */
+final class PostPutBenchmark {
+    private static final int[] numberListeners = {1,10,100,1000};
+
+    public static void main(String[] args) {
+        int numberPuts = (args.length>0) ? Integer.parseInt(args[0]) : 1000000;
+        for(int i=0; i<numberListeners.length; i++) {
+            // the first pass warms up the JIT.
+            run(numberListeners[i],numberPuts/10);
+            double nanos = run(numberListeners[i],numberPuts);
+            System.out.printf("listeners %5d  %10.1f ns/put  %8.2f ns/listener%n",
+                numberListeners[i],nanos,nanos/numberListeners[i]);
+        }
+    }
+
+    private static double run(int number,int numberPuts) {
+        PVStructure pvStructure = PVDataFactory.getPVDataCreate().createPVStructure(
+            FieldFactory.getFieldCreate().createFieldBuilder().
+            add("value",ScalarType.pvDouble).
+            createStructure());
+        PVRecord pvRecord = new PVRecord("postPutBenchmark",pvStructure);
+        PVStructure pvRequest = CreateRequest.create().createRequest("field(value)");
+        PVCopy pvCopy = PVCopyFactory.create(pvStructure,pvRequest,"");
+        for(int i=0; i<number; i++) pvRecord.addListener(new Listener(),pvCopy);
+        PVDouble pvValue = pvStructure.getSubField(PVDouble.class,"value");
+        long start = System.nanoTime();
+        for(int i=0; i<numberPuts; i++) {
+            pvRecord.lock();
+            try {
+                pvRecord.beginGroupPut();
+                pvValue.put(i);
+                pvRecord.endGroupPut();
+            } finally {
+                pvRecord.unlock();
+            }
+        }
+        double nanos = (System.nanoTime() - start)/(double)numberPuts;
+        pvRecord.destroy();
+        return nanos;
+    }
+
+    private static class Listener implements PVListener {
+        private long numberPuts = 0;
+
+        public void dataPut(PVRecordField pvRecordField) {
+            ++numberPuts;
+        }
+
+        public void dataPut(PVRecordStructure requested,PVRecordField pvRecordField) {
+            ++numberPuts;
+        }
+
+        public void beginGroupPut(PVRecord pvRecord) {}
+
+        public void endGroupPut(PVRecord pvRecord) {}
+
+        public void unlisten(PVRecord pvRecord) {}
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.epics.pvdata.factory.FieldFactory;
+import org.epics.pvdata.factory.PVDataFactory;
+import org.epics.pvdata.pv.PVDouble;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.Structure;
+import org.epics.pvdatabase.PVDatabase;
+import org.epics.pvdatabase.PVDatabaseFactory;
+import org.epics.pvdatabase.PVRecord;
+import org.junit.Test;
+
+/**
+ * Write a journal and replay it into a new database.
+ */
+public class JournalTest {
+    private static final String recordName = "journalTest:value";
+    private static final Structure structure = FieldFactory.getFieldCreate().createFieldBuilder().
+        add("value",ScalarType.pvDouble).
+        createStructure();
+
+    @Test
+    public void testReplay() throws Exception {
+        File file = createFile();
+        PVDatabase pvDatabase = createDatabase("journalTestWrite");
+        Journal journal = JournalFactory.create(file.getPath());
+        assertTrue(journal.addRecord(pvDatabase.findRecord(recordName)));
+        put(pvDatabase,1,10);
+        journal.flush();
+        assertEquals(10,journal.getNumberEntries());
+        journal.destroy();
+        pvDatabase.destroy();
+
+        pvDatabase = createDatabase("journalTestReplay");
+        assertEquals(10,JournalFactory.replay(file.getPath(),pvDatabase));
+        assertEquals(10.0,getValue(pvDatabase),0.0);
+        pvDatabase.destroy();
+    }
+
+    @Test
+    public void testTornTail() throws Exception {
+        File file = createFile();
+        PVDatabase pvDatabase = createDatabase("journalTestTorn");
+        Journal journal = JournalFactory.create(file.getPath());
+        journal.addRecord(pvDatabase.findRecord(recordName));
+        put(pvDatabase,1,3);
+        journal.flush();
+        journal.destroy();
+        long length = file.length();
+        // an entry cut short by a crash: its size is 100 but only 2 bytes follow the crc.
+        FileOutputStream out = new FileOutputStream(file,true);
+        try {
+            out.write(new byte[] {0,0,0,100,0,0,0,0,1,2});
+        } finally {
+            out.close();
+        }
+
+        journal = JournalFactory.create(file.getPath());
+        assertEquals(length,file.length());
+        journal.addRecord(pvDatabase.findRecord(recordName));
+        put(pvDatabase,4,5);
+        journal.flush();
+        journal.destroy();
+        pvDatabase.destroy();
+
+        pvDatabase = createDatabase("journalTestTornReplay");
+        assertEquals(5,JournalFactory.replay(file.getPath(),pvDatabase));
+        assertEquals(5.0,getValue(pvDatabase),0.0);
+        pvDatabase.destroy();
+    }
+
+    @Test
+    public void testUnknownRecord() throws Exception {
+        File file = createFile();
+        PVDatabase pvDatabase = createDatabase("journalTestUnknown");
+        Journal journal = JournalFactory.create(file.getPath());
+        journal.addRecord(pvDatabase.findRecord(recordName));
+        put(pvDatabase,1,2);
+        journal.flush();
+        journal.destroy();
+        pvDatabase.destroy();
+
+        pvDatabase = PVDatabaseFactory.getDatabase("journalTestEmpty");
+        assertEquals(0,JournalFactory.replay(file.getPath(),pvDatabase));
+        pvDatabase.destroy();
+    }
+
+    private static File createFile() throws IOException {
+        File file = File.createTempFile("journalTest",".journal");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static PVDatabase createDatabase(String name) {
+        PVDatabase pvDatabase = PVDatabaseFactory.getDatabase(name);
+        PVStructure pvStructure = PVDataFactory.getPVDataCreate().createPVStructure(structure);
+        assertTrue(pvDatabase.addRecord(new PVRecord(recordName,pvStructure)));
+        return pvDatabase;
+    }
+
+    // put the values from first to last, each in its own group put.
+    private static void put(PVDatabase pvDatabase,int first,int last) {
+        PVRecord pvRecord = pvDatabase.findRecord(recordName);
+        PVDouble pvValue = pvRecord.getPVRecordStructure().getPVStructure().getSubField(PVDouble.class,"value");
+        for(int value=first; value<=last; value++) {
+            pvRecord.lock();
+            try {
+                pvRecord.beginGroupPut();
+                pvValue.put(value);
+                pvRecord.endGroupPut();
+            } finally {
+                pvRecord.unlock();
+            }
+        }
+    }
+
+    private static double getValue(PVDatabase pvDatabase) {
+        PVRecord pvRecord = pvDatabase.findRecord(recordName);
+        return pvRecord.getPVRecordStructure().getPVStructure().getSubField(PVDouble.class,"value").get();
+    }
+}
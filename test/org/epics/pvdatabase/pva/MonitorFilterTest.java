@@ -0,0 +1,153 @@
+/**
+ * Copyright - See the COPYRIGHT that is included with this distribution.
+ * EPICS pvData is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ */
+package org.epics.pvdatabase.pva;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.epics.pvdata.copy.CreateRequest;
+import org.epics.pvdata.copy.PVCopy;
+import org.epics.pvdata.copy.PVCopyFactory;
+import org.epics.pvdata.factory.FieldFactory;
+import org.epics.pvdata.factory.PVDataFactory;
+import org.epics.pvdata.misc.BitSet;
+import org.epics.pvdata.pv.PVDouble;
+import org.epics.pvdata.pv.PVInt;
+import org.epics.pvdata.pv.PVLong;
+import org.epics.pvdata.pv.PVStructure;
+import org.epics.pvdata.pv.ScalarType;
+import org.epics.pvdata.pv.Structure;
+import org.junit.Test;
+
+/**
+ * The value filters of MonitorFilterFactory, driven the way MonitorLocal drives them:
+ * filter the changed bits, then report what was delivered if any bit is left.
+ */
+public class MonitorFilterTest {
+    private static final Structure structure = FieldFactory.getFieldCreate().createFieldBuilder().
+        add("value",ScalarType.pvDouble).
+        add("count",ScalarType.pvInt).
+        addNestedStructure("timeStamp").
+            add("secondsPastEpoch",ScalarType.pvLong).
+            add("nanoseconds",ScalarType.pvInt).
+            add("userTag",ScalarType.pvInt).
+            endNested().
+        createStructure();
+
+    private final PVStructure pvStructure = PVDataFactory.getPVDataCreate().createPVStructure(structure);
+    private final PVDouble pvValue = pvStructure.getSubField(PVDouble.class,"value");
+    private final PVInt pvCount = pvStructure.getSubField(PVInt.class,"count");
+    private final PVLong pvSeconds = pvStructure.getSubField(PVLong.class,"timeStamp.secondsPastEpoch");
+    private PVCopy pvCopy;
+    private MonitorFilter[] filters;
+
+    @Test
+    public void testDeadbandAbsolute() {
+        create("record[deadbandAbsolute=1.0]field(value,count,timeStamp)");
+        assertTrue(first());
+        assertFalse(isValueDelivered(0.5));
+        assertTrue(isValueDelivered(1.5));
+        assertFalse(isValueDelivered(2.0));
+        assertTrue(isValueDelivered(0.0));
+    }
+
+    @Test
+    public void testDeadbandSlowRamp() {
+        create("record[deadbandAbsolute=1.0]field(value,count,timeStamp)");
+        assertTrue(first());
+        // each step is below the deadband, but the ramp crosses it relative to the value delivered.
+        // count changes with each step, so an element is delivered without value.
+        for(int i=1; i<=2; i++) {
+            assertFalse(isValueDeliveredWithCount(0.4*i));
+        }
+        assertTrue(isValueDeliveredWithCount(1.2));
+    }
+
+    @Test
+    public void testDeadbandRelative() {
+        create("record[deadbandRelative=0.1]field(value,count,timeStamp)");
+        pvValue.put(100.0);
+        assertTrue(first());
+        assertFalse(isValueDeliveredWithCount(105.0));
+        assertTrue(isValueDeliveredWithCount(111.0));
+    }
+
+    @Test
+    public void testOnChange() {
+        create("record[onChange=true]field(value,count,timeStamp)");
+        pvValue.put(1.0);
+        assertTrue(first());
+        assertFalse(isValueDeliveredWithCount(1.0));
+        assertTrue(isValueDelivered(2.0));
+        assertFalse(isValueDelivered(2.0));
+    }
+
+    @Test
+    public void testOtherFieldsDelivered() {
+        create("record[deadbandAbsolute=1.0]field(value,count,timeStamp)");
+        assertTrue(first());
+        BitSet changedBitSet = put(0.5,true);
+        assertFalse(changedBitSet.get(offset("value")));
+        assertFalse(changedBitSet.get(offset("timeStamp")));
+        assertTrue(changedBitSet.get(offset("count")));
+    }
+
+    @Test
+    public void testValueNotRequested() {
+        create("record[deadbandAbsolute=1.0]field(count)");
+        assertEquals(0,filters.length);
+    }
+
+    private void create(String request) {
+        PVStructure pvRequest = CreateRequest.create().createRequest(request);
+        pvCopy = PVCopyFactory.create(pvStructure,pvRequest,"");
+        filters = MonitorFilterFactory.create(pvRequest,pvCopy);
+    }
+
+    private int offset(String fieldName) {
+        return pvCopy.getCopyOffset(pvStructure.getSubField(fieldName));
+    }
+
+    // the first update is the whole structure and is always delivered.
+    private boolean first() {
+        BitSet changedBitSet = new BitSet(pvStructure.getNumberFields());
+        changedBitSet.set(0);
+        filter(changedBitSet);
+        return changedBitSet.get(0);
+    }
+
+    private boolean isValueDelivered(double value) {
+        return put(value,false).get(offset("value"));
+    }
+
+    private boolean isValueDeliveredWithCount(double value) {
+        return put(value,true).get(offset("value"));
+    }
+
+    // put value and the timeStamp, and count if withCount, and filter the changes.
+    private BitSet put(double value,boolean withCount) {
+        pvValue.put(value);
+        pvSeconds.put(pvSeconds.get() + 1);
+        BitSet changedBitSet = new BitSet(pvStructure.getNumberFields());
+        changedBitSet.set(offset("value"));
+        changedBitSet.set(offset("timeStamp"));
+        if(withCount) {
+            pvCount.put(pvCount.get() + 1);
+            changedBitSet.set(offset("count"));
+        }
+        filter(changedBitSet);
+        return changedBitSet;
+    }
+
+    private void filter(BitSet changedBitSet) {
+        for(int i=0; i<filters.length; i++) {
+            assertEquals(0,filters[i].filter(changedBitSet));
+        }
+        if(changedBitSet.nextSetBit(0)<0) return;
+        for(int i=0; i<filters.length; i++) filters[i].delivered(changedBitSet);
+    }
+}